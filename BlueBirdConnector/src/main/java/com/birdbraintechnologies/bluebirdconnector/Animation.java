@@ -0,0 +1,108 @@
+package com.birdbraintechnologies.bluebirdconnector;
+
+// A frame sequence for the LED matrix or one tri-LED, uploaded once and
+// played by Robot from RobotScheduler, looping or one-shot. Frames are
+// scheduled against the animation's start time, so playback does not drift.
+public class Animation {
+
+    public static final int MAX_FRAMES = 256;
+
+    public enum Target { SYMBOL, TRI_LED }
+
+    public final Target target;
+    public final String port; // tri-LED port, null for the matrix
+    public final long frameMs;
+    public final boolean loop;
+    // SYMBOL: pixel masks as for Robot.setSymbol. TRI_LED: 0xRRGGBB of the
+    // raw LED levels, as the triled block sends them.
+    private final int[] frames;
+
+    private Animation(Target target, String port, long frameMs, boolean loop, int[] frames) {
+        this.target = target;
+        this.port = port;
+        this.frameMs = frameMs;
+        this.loop = loop;
+        this.frames = frames;
+    }
+
+    // Playback slot on the robot. Starting an animation replaces the one
+    // playing on the same slot.
+    public String getKey() {
+        return target == Target.SYMBOL ? "symbol" : "triled" + port;
+    }
+
+    public int size() {
+        return frames.length;
+    }
+
+    public int getFrame(int i) {
+        return frames[i];
+    }
+
+    // params[first..] are frameMs, "loop" or "once", then one frame per
+    // parameter: 25 characters of 0 and 1, LED 0 (top left) first.
+    public static Animation parseSymbols(String[] params, int first) {
+        int[] frames = parseFrames(params, first + 2);
+        for (int i = 0; i < frames.length; i++) {
+            frames[i] = parsePixels(params[first + 2 + i]);
+        }
+        return new Animation(Target.SYMBOL, null, parseFrameMs(params[first]), parseLoop(params[first + 1]), frames);
+    }
+
+    // 25 characters of 0 and 1, LED 0 (top left) first, to a pixel mask.
+    public static int parsePixels(String pattern) {
+        if (pattern.length() != 25) {
+            throw new IllegalArgumentException("Bad symbol pattern: " + pattern);
+        }
+        int pixels = 0;
+        for (int led = 0; led < 25; led++) {
+            if (pattern.charAt(led) == '1') {
+                pixels |= 1 << led;
+            }
+        }
+        return pixels;
+    }
+
+    // params[first..] are frameMs, "loop" or "once", then one "r,g,b"
+    // frame per parameter.
+    public static Animation parseTriLed(String port, String[] params, int first) {
+        int[] frames = parseFrames(params, first + 2);
+        for (int i = 0; i < frames.length; i++) {
+            String[] rgb = params[first + 2 + i].split(",");
+            if (rgb.length != 3) {
+                throw new IllegalArgumentException("Bad tri-LED frame: " + params[first + 2 + i]);
+            }
+            frames[i] = ((Integer.parseInt(rgb[0]) & 0xFF) << 16)
+                    | ((Integer.parseInt(rgb[1]) & 0xFF) << 8)
+                    | (Integer.parseInt(rgb[2]) & 0xFF);
+        }
+        return new Animation(Target.TRI_LED, port, parseFrameMs(params[first]), parseLoop(params[first + 1]), frames);
+    }
+
+    private static int[] parseFrames(String[] params, int first) {
+        int count = params.length - first;
+        if (count <= 0 || count > MAX_FRAMES) {
+            throw new IllegalArgumentException("An animation needs 1 to " + MAX_FRAMES + " frames, got " + count);
+        }
+        return new int[count];
+    }
+
+    private static long parseFrameMs(String param) {
+        long frameMs = Long.parseLong(param);
+        if (frameMs <= 0) {
+            throw new IllegalArgumentException("Bad animation frame time: " + param);
+        }
+        return frameMs;
+    }
+
+    private static boolean parseLoop(String param) {
+        switch (param) {
+            case "loop":
+                return true;
+            case "once":
+                return false;
+            default:
+                throw new IllegalArgumentException("Expected loop or once, got " + param);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.birdbraintechnologies.bluebirdconnector;
+
+// Battery state shown in the GUI. Transitions use hysteresis: the threshold
+// guarding the current level is relaxed by the robot's batteryTolerance and
+// the one just above it is raised, so a voltage hovering around a threshold
+// does not make the indicator (and the text-to-speech) flicker.
+public enum BatteryLevel {
+    UNKNOWN("unknown"),
+    FULL("full"),
+    GREEN("green"),
+    YELLOW("yellow"),
+    RED("red");
+
+    public final String label;
+
+    BatteryLevel(String label) {
+        this.label = label;
+    }
+
+    public BatteryLevel next(double voltage, double fullThresh, double greenThresh, double yellowThresh, double tolerance) {
+        double full = fullThresh;
+        double green = greenThresh;
+        double yellow = yellowThresh;
+        switch (this) {
+            case FULL:
+                full -= tolerance;
+                break;
+            case GREEN:
+                full += tolerance;
+                green -= tolerance;
+                break;
+            case YELLOW:
+                green += tolerance;
+                yellow -= tolerance;
+                break;
+            case RED:
+                yellow += tolerance;
+                break;
+            default:
+                break;
+        }
+        if (voltage > full) {
+            return FULL;
+        } else if (voltage > green) {
+            return GREEN;
+        } else if (voltage > yellow) {
+            return YELLOW;
+        } else {
+            return RED;
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package com.birdbraintechnologies.bluebirdconnector;
+
+import static com.birdbraintechnologies.bluebirdconnector.RobotManager.*;
+
+// Encoders for every frame the connector writes to a robot. There is one
+// codec per frame layout: the Finch, and the Hummingbird Bit / micro:bit,
+// which share theirs. Encoders write into a buffer supplied by the caller
+// (normally one of the channel buffers a Robot keeps for its lifetime) and
+// never allocate, so building a frame costs nothing but the byte stores.
+public final class CommandCodec {
+    static final Log LOG = Log.getLogger(CommandCodec.class);
+
+    public static final int FRAME_LENGTH = 20;
+
+    public static final CommandCodec FINCH = new CommandCodec(true, (byte) 0xD0, 16, (byte) 0xDF);
+    public static final CommandCodec HUMMINGBIT = new CommandCodec(false, (byte) 0xCA, 15, (byte) 0xCB);
+
+    // Fixed commands. These are shared, so never write into them.
+    static final byte[] CALIBRATE = {(byte) 0xCE, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF};
+    static final byte[] RESET_ENCODERS = {(byte) 0xD5};
+    // Start and stop the sensor notification stream. V2 micro:bits send the
+    // longer frame with the extra sensors.
+    static final byte[] POLL_START_V1 = {0x62, 0x67};
+    static final byte[] POLL_START_V2 = {0x62, 0x70};
+    static final byte[] POLL_STOP = {0x62, 0x73};
+
+    private static final byte LED_DISPLAY_OPCODE = (byte) 0xCC;
+    private static final byte SYMBOL_MODE = (byte) 0x80;
+    private static final int PRINT_MODE = 0x40;
+    private static final byte FINCH_MOTORS_OPCODE = (byte) 0xD2;
+
+    public final boolean finch;
+    public final byte setAllOpcode;
+    // Buzzer period (us) and duration (ms), both 16 bit big endian
+    public final int freqIndex;
+    public final int durationIndex;
+    public final byte[] stopAll;
+
+    private CommandCodec(boolean finch, byte setAllOpcode, int freqIndex, byte stopAllOpcode) {
+        this.finch = finch;
+        this.setAllOpcode = setAllOpcode;
+        this.freqIndex = freqIndex;
+        this.durationIndex = freqIndex + 2;
+        this.stopAll = new byte[] {stopAllOpcode, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF};
+    }
+
+    public static CommandCodec forType(String type) {
+        return type.equals("FN") ? FINCH : HUMMINGBIT;
+    }
+
+    //
+    // setAll frame
+    //
+
+    // Everything off. Hummingbird servos are off at 0xFF rather than 0.
+    public void initSetAll(byte[] frame) {
+        for (int i = 0; i < FRAME_LENGTH; i++) {
+            frame[i] = 0;
+        }
+        frame[0] = setAllOpcode;
+        if (!finch) {
+            frame[9] = (byte) 0xFF;
+            frame[10] = (byte) 0xFF;
+            frame[11] = (byte) 0xFF;
+            frame[12] = (byte) 0xFF;
+        }
+    }
+
+    // Returns false if the port doesn't exist on this robot. For the Finch,
+    // port "all" sets the four tail LEDs and "1" is the beak.
+    public boolean encodeTriLed(byte[] frame, String port, byte rVal, byte gVal, byte bVal) {
+        int ri;
+        if (finch) {
+            if (port.equals("all")) {
+                for (int i = 4; i <= 13; i += 3) {
+                    frame[i] = rVal;
+                    frame[i + 1] = gVal;
+                    frame[i + 2] = bVal;
+                }
+                return true;
+            }
+            ri = (Integer.parseInt(port) - 1) * 3 + 1;
+        } else {
+            switch (port) { //LED number to byte mapping
+                case "1":
+                    ri = 3;
+                    break;
+                case "2":
+                    ri = 6;
+                    break;
+                default:
+                    return false;
+            }
+        }
+        frame[ri] = rVal;
+        frame[ri + 1] = gVal;
+        frame[ri + 2] = bVal;
+        return true;
+    }
+
+    // A note of 0 or a duration of 0 switches the buzzer off.
+    public void encodeBuzzer(byte[] frame, int note, int ms) {
+        int period_us = 0;
+        int duration = 0;
+        if (!((note == 0) || ms == 0)) { //Valid note to play
+            //Calculate the frequency from the MIDI note: https://newt.phys.unsw.edu.au/jw/notes.html
+            double frequency = Math.pow(2.0, (note - 69.0) / 12.0) * 440;  //Hz
+            period_us = (int) Math.round(1000000 / frequency);
+            duration = ms;
+        }
+        frame[freqIndex] = (byte) (period_us >> 8);
+        frame[freqIndex + 1] = (byte) period_us;
+        frame[durationIndex] = (byte) (duration >> 8);
+        frame[durationIndex + 1] = (byte) duration;
+    }
+
+    public void clearBuzzer(byte[] frame) {
+        frame[freqIndex] = 0;
+        frame[freqIndex + 1] = 0;
+        frame[durationIndex] = 0;
+        frame[durationIndex + 1] = 0;
+    }
+
+    public boolean hasBuzzerNote(byte[] frame) {
+        return frame[durationIndex] != 0 || frame[durationIndex + 1] != 0;
+    }
+
+    //
+    // LED display frames
+    //
+
+    // pixels holds the 5x5 display, bit n for LED n (0 is the top left,
+    // row by row), as in the symbol block's parameter order.
+    public static void encodeSymbol(int pixels, byte[] frame) {
+        frame[0] = LED_DISPLAY_OPCODE;
+        frame[1] = SYMBOL_MODE;
+        frame[2] = (byte) ((pixels >> 24) & 0x01);
+        frame[3] = (byte) (pixels >> 16);
+        frame[4] = (byte) (pixels >> 8);
+        frame[5] = (byte) pixels;
+        for (int i = 6; i < FRAME_LENGTH; i++) {
+            frame[i] = 0;
+        }
+    }
+
+    // Up to MAX_LED_PRINT_WORD_LEN characters of text to scroll across the display.
+    public static void encodePrint(char[] chars, int offset, int length, byte[] frame) {
+        int wordLength = Math.min(length, MAX_LED_PRINT_WORD_LEN);
+        frame[0] = LED_DISPLAY_OPCODE;
+        frame[1] = (byte) (PRINT_MODE | (wordLength & 0x0F));
+        for (int i = 0; i < FRAME_LENGTH - 2; i++) {
+            frame[i + 2] = (i < wordLength) ? (byte) chars[offset + i] : 0;
+        }
+    }
+
+    // Number of characters in a frame built by encodePrint.
+    public static int printLength(byte[] frame) {
+        return frame[1] - PRINT_MODE;
+    }
+
+    //
+    // Finch motors
+    //
+
+    // One wheel: speed in [-100, 100] and a tick count, where 0 ticks means
+    // keep going. Writes 4 bytes at offset.
+    public static void encodeMotor(int speed, int ticks, byte[] out, int offset) {
+        // speed in [-100, +100]
+        int absSpeed = Math.abs(speed);
+        // absSpeed in [0, 100]
+        int sSpeed = (int) Math.round(absSpeed * FINCH_SPEED_SCALING);
+        // sSpeed in [0, MAX]
+        if (sSpeed < 3 && sSpeed != 0) { sSpeed = 3; }
+        // sSpeed in 0 + [3, MAX]
+        byte scaledSpeed = (byte) sSpeed;
+        if (speed > 0) { scaledSpeed += 128;}
+        // scaledSpeed as a sign bit at the top, 1 for forward, 0 for backwards
+        out[offset] = scaledSpeed;
+        out[offset + 1] = (byte) ((ticks & 0xFF0000) >> 16);
+        out[offset + 2] = (byte) ((ticks & 0x00FF00) >> 8);
+        out[offset + 3] = (byte) (ticks & 0x0000FF);
+    }
+
+    // Both wheels encoded with no tick limit.
+    public static boolean isContinuous(byte[] motors) {
+        return isContinuous(motors, 0);
+    }
+
+    private static boolean isContinuous(byte[] b, int offset) {
+        return b[offset + 1] == 0 && b[offset + 2] == 0 && b[offset + 3] == 0
+                && b[offset + 5] == 0 && b[offset + 6] == 0 && b[offset + 7] == 0;
+    }
+
+    // The Finch's combined 0xD2 frame. Pass null for any part that should not
+    // be sent; a print takes precedence over a symbol. Returns the mode byte,
+    // 0 if there was nothing to send (in which case out is not a valid frame).
+    public static byte encodeFinchFrame(byte[] out, byte[] motors, byte[] ledPrint, byte[] ledDisplay) {
+        for (int i = 0; i < FRAME_LENGTH; i++) {
+            out[i] = 0;
+        }
+        out[0] = FINCH_MOTORS_OPCODE;
+
+        byte mode = 0;
+        int ledOffset = 2;
+        if (motors != null) {
+            System.arraycopy(motors, 0, out, 2, 8);
+            ledOffset = 10;
+            mode = 0x40;
+        }
+        if (ledPrint != null) {
+            int printLength = printLength(ledPrint);
+            System.arraycopy(ledPrint, 2, out, ledOffset, printLength);
+            mode = (byte) ((motors != null ? 0x80 : 0) + printLength);
+        } else if (ledDisplay != null) {
+            System.arraycopy(ledDisplay, 2, out, ledOffset, 4);
+            mode = (byte) (motors != null ? 0x60 : 0x20);
+        }
+        out[1] = mode;
+        return mode;
+    }
+
+    //
+    // Superseding frames
+    //
+
+    // Some frames carry the whole state of what they set, so an unsent one is
+    // pointless once a newer frame of the same kind is queued. Returns a key
+    // shared by frames that supersede each other, or 0 for a frame that must
+    // go out as is: fixed commands, a buzzer note, scrolling text, or Finch
+    // wheels moving a set distance.
+    public static int supersedeKey(byte[] frame) {
+        if (frame.length != FRAME_LENGTH) {
+            return 0;
+        }
+        int opcode = frame[0] & 0xFF;
+        if (frame[0] == FINCH.setAllOpcode) {
+            return FINCH.hasBuzzerNote(frame) ? 0 : opcode << 8;
+        } else if (frame[0] == HUMMINGBIT.setAllOpcode) {
+            return HUMMINGBIT.hasBuzzerNote(frame) ? 0 : opcode << 8;
+        } else if (frame[0] == LED_DISPLAY_OPCODE) {
+            return (frame[1] == SYMBOL_MODE) ? opcode << 8 : 0;
+        } else if (frame[0] == FINCH_MOTORS_OPCODE) {
+            // Only a frame with the same parts (see encodeFinchFrame) replaces it
+            int mode = frame[1] & 0xFF;
+            boolean continuous = (mode == 0x20) || ((mode == 0x40 || mode == 0x60) && isContinuous(frame, 2));
+            return continuous ? (opcode << 8) | mode : 0;
+        }
+        return 0;
+    }
+}
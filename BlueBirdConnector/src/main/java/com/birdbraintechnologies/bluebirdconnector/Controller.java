@@ -0,0 +1,234 @@
+package com.birdbraintechnologies.bluebirdconnector;
+
+import com.google.gson.JsonObject;
+
+import java.util.function.Function;
+
+// A feedback controller run by Robot.receiveNotification on every frame,
+// so that line and wall following close the loop at the notification rate
+// instead of through an HTTP round trip per cycle. The measurement is a
+// decoded Sensor, or the difference of two (left minus right for a pair of
+// line sensors). The output drives the Finch's wheels or a Hummingbird
+// servo port through the usual Robot channels, so it goes out with the
+// SetAllThread's next frame.
+public class Controller {
+    static final Log LOG = Log.getLogger(Controller.class);
+
+    public enum Mode {
+        PID("pid"), BANG_BANG("bangBang");
+
+        public final String label;
+
+        Mode(String label) {
+            this.label = label;
+        }
+    }
+
+    public enum Output {
+        // Finch: base speed plus the output on the left wheel, minus on the right
+        STEER("steer"),
+        // Finch: the output is the speed of both wheels
+        WHEELS("wheels"),
+        // Hummingbird: the output plus base is the raw servo value
+        SERVO("servo");
+
+        public final String label;
+
+        Output(String label) {
+            this.label = label;
+        }
+    }
+
+    public final Mode mode;
+    public final Sensor input;
+    public final Sensor input2; // subtracted from input, or null
+    public final double setpoint;
+    public final double kp, ki, kd;
+    public final double hysteresis; // bang-bang dead band around the setpoint
+    public final Output output;
+    public final int port; // servo port 1-4
+    public final double base;
+    public final double outMin, outMax;
+
+    // State, touched only on the notification thread (and getStatus)
+    private boolean primed = false;
+    private long lastNs;
+    private double lastMeasurement;
+    private double integral;
+    private double lastOutput;
+    private int lastLeft = Integer.MIN_VALUE, lastRight = Integer.MIN_VALUE;
+    private long updates;
+
+    private Controller(Mode mode, Sensor input, Sensor input2, double setpoint, double kp, double ki, double kd,
+                       double hysteresis, Output output, int port, double base, double outMin, double outMax) {
+        this.mode = mode;
+        this.input = input;
+        this.input2 = input2;
+        this.setpoint = setpoint;
+        this.kp = kp;
+        this.ki = ki;
+        this.kd = kd;
+        this.hysteresis = hysteresis;
+        this.output = output;
+        this.port = port;
+        this.base = base;
+        this.outMin = outMin;
+        this.outMax = outMax;
+    }
+
+    // Builds a controller from named parameters (the query string of
+    // /hummingbird/out/controller/<dev>):
+    //   mode      pid (default) or bangBang
+    //   input     Sensor label, e.g. LineLeft. input2 optionally, subtracted
+    //   setpoint  target for the measurement, default 0
+    //   kp ki kd  PID gains, default 1, 0, 0
+    //   hysteresis  bang-bang dead band, default 0
+    //   output    steer (default), wheels or servo. port for servo, 1-4
+    //   base      added to the output, default 0
+    //   min max   output limits, default -100 and 100 (0 and 254 for servo)
+    public static Controller parse(Function<String, String> param) {
+        Mode mode = Mode.PID;
+        String modeLabel = param.apply("mode");
+        if (modeLabel != null) {
+            if (modeLabel.equalsIgnoreCase(Mode.BANG_BANG.label)) {
+                mode = Mode.BANG_BANG;
+            } else if (!modeLabel.equalsIgnoreCase(Mode.PID.label)) {
+                throw new IllegalArgumentException("Unknown controller mode " + modeLabel);
+            }
+        }
+        Sensor input = Sensor.fromLabel(String.valueOf(param.apply("input")));
+        if (input == null) {
+            throw new IllegalArgumentException("Controller needs an input sensor");
+        }
+        Sensor input2 = null;
+        if (param.apply("input2") != null) {
+            input2 = Sensor.fromLabel(param.apply("input2"));
+            if (input2 == null) {
+                throw new IllegalArgumentException("Unknown controller input2 " + param.apply("input2"));
+            }
+        }
+        Output output = Output.STEER;
+        String outputLabel = param.apply("output");
+        if (outputLabel != null) {
+            output = null;
+            for (Output o : Output.values()) {
+                if (o.label.equalsIgnoreCase(outputLabel)) {
+                    output = o;
+                }
+            }
+            if (output == null) {
+                throw new IllegalArgumentException("Unknown controller output " + outputLabel);
+            }
+        }
+        int port = (int) getDouble(param, "port", 1);
+        if (output == Output.SERVO && (port < 1 || port > 4)) {
+            throw new IllegalArgumentException("Servo port must be 1-4");
+        }
+        boolean servo = (output == Output.SERVO);
+        double outMin = getDouble(param, "min", servo ? 0 : -100);
+        double outMax = getDouble(param, "max", servo ? 254 : 100);
+        if (outMin > outMax) {
+            throw new IllegalArgumentException("Controller min is above max");
+        }
+        return new Controller(mode, input, input2, getDouble(param, "setpoint", 0),
+                getDouble(param, "kp", 1), getDouble(param, "ki", 0), getDouble(param, "kd", 0),
+                getDouble(param, "hysteresis", 0), output, port, getDouble(param, "base", 0), outMin, outMax);
+    }
+
+    private static double getDouble(Function<String, String> param, String name, double defaultValue) {
+        String value = param.apply(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Bad controller " + name + ": " + value);
+        }
+    }
+
+    public boolean drivesWheels() {
+        return output != Output.SERVO;
+    }
+
+    // Called from Robot.receiveNotification for every frame.
+    public synchronized void update(Robot robot, byte[] data, long frameNs) {
+        double measurement = input.read(robot, data);
+        if (input2 != null) {
+            measurement -= input2.read(robot, data);
+        }
+        double error = setpoint - measurement;
+        double u;
+        if (mode == Mode.BANG_BANG) {
+            if (error > hysteresis) {
+                u = outMax;
+            } else if (error < -hysteresis) {
+                u = outMin;
+            } else {
+                u = primed ? lastOutput : 0;
+            }
+        } else {
+            double dt = primed ? (frameNs - lastNs) / 1e9 : 0;
+            if (dt > 0) {
+                integral += error * dt;
+                // Keep the integral term inside the output range (anti-windup)
+                if (ki != 0) {
+                    double limit = Math.max(Math.abs(outMin), Math.abs(outMax)) / Math.abs(ki);
+                    integral = Math.max(-limit, Math.min(limit, integral));
+                }
+            }
+            // Derivative of the measurement, so a setpoint change doesn't kick
+            double derivative = (dt > 0) ? -(measurement - lastMeasurement) / dt : 0;
+            u = kp * error + ki * integral + kd * derivative;
+        }
+        u = Math.max(outMin, Math.min(outMax, u));
+
+        primed = true;
+        lastNs = frameNs;
+        lastMeasurement = measurement;
+        lastOutput = u;
+        updates++;
+        write(robot, u);
+    }
+
+    private void write(Robot robot, double u) {
+        switch (output) {
+            case STEER:
+                setWheels(robot, clampSpeed(base + u), clampSpeed(base - u));
+                break;
+            case WHEELS:
+                setWheels(robot, clampSpeed(base + u), clampSpeed(base + u));
+                break;
+            case SERVO:
+                int value = (int) Math.round(Math.max(0, Math.min(254, base + u)));
+                if (value != lastLeft) {
+                    lastLeft = value;
+                    robot.updateSetAll(8 + port, (byte) value); //servo ports 1-4 are setAll bytes 9-12
+                }
+                break;
+        }
+    }
+
+    private void setWheels(Robot robot, int left, int right) {
+        if (left != lastLeft || right != lastRight) {
+            lastLeft = left;
+            lastRight = right;
+            robot.updateMotors(left, 0, right, 0);
+        }
+    }
+
+    private static int clampSpeed(double speed) {
+        return (int) Math.round(Math.max(-100, Math.min(100, speed)));
+    }
+
+    public synchronized JsonObject getStatus() {
+        JsonObject json = new JsonObject();
+        json.addProperty("mode", mode.label);
+        json.addProperty("output", output.label);
+        json.addProperty("measurement", lastMeasurement);
+        json.addProperty("error", setpoint - lastMeasurement);
+        json.addProperty("value", lastOutput);
+        json.addProperty("updates", updates);
+        return json;
+    }
+}
@@ -8,6 +8,7 @@ import org.thingml.bglib.*;
 import org.thingml.bglib.gui.*;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static com.birdbraintechnologies.bluebirdconnector.Utilities.*;
 
@@ -75,8 +76,8 @@ public class DongleBLE extends BGAPIDefaultListener implements RobotCommunicator
 
     //Information about the device that is currently being connected
     BLEDevice bledConnecting = null;
-    //List of connected devices
-    BLEDevice[] connectedDevices = new BLEDevice[10]; //TODO: initialize to 3?
+    //List of connected devices, by dongle connection handle
+    final ConcurrentHashMap<Integer, BLEDevice> connectedDevices = new ConcurrentHashMap<>();
     private Hashtable<String, Integer> robotIndexes = new Hashtable<>();
     private Hashtable<String, Integer> disconnectRequests = new Hashtable<>();
 
@@ -194,6 +195,17 @@ public class DongleBLE extends BGAPIDefaultListener implements RobotCommunicator
         }
     }
 
+    @Override
+    public void setPollingMode(String robotName, PollingMode mode) {
+        Integer index = robotIndexes.get(robotName);
+        if (index == null || bgapi == null) {
+            LOG.error("Cannot set polling mode for {}. Robot not connected.", robotName);
+            return;
+        }
+        LOG.info("Connection update for {}: {}", robotName, mode.label);
+        bgapi.send_connection_update(index, mode.intervalMin, mode.intervalMax, mode.latency, mode.supervisionTimeout);
+    }
+
     /**
      * shut down the communicator
      */
@@ -236,7 +248,12 @@ public class DongleBLE extends BGAPIDefaultListener implements RobotCommunicator
 
     //Send command to specified device
     private void sendCommand(byte[] command, int connection) {
-        int attHandle = connectedDevices[connection].getTxHandle();
+        BLEDevice robot = connectedDevices.get(connection);
+        if (robot == null) {
+            LOG.error("Sending command to {} which is not connected", connection);
+            return;
+        }
+        int attHandle = robot.getTxHandle();
         LOG.debug("Writing to connection {} using handle {}", connection, attHandle);
         sendAsyncCommandWithHandle(command, connection, attHandle);
     }
@@ -288,7 +305,8 @@ public class DongleBLE extends BGAPIDefaultListener implements RobotCommunicator
 
                 //Send a get firmware command to determine which type of microbit this is.
                 byte[] getFirmwareCmd = new byte[] { (byte)0xCF };
-                if (connectedDevices[connection] != null && connectedDevices[connection].getName().startsWith("FN")) {
+                BLEDevice device = connectedDevices.get(connection);
+                if (device != null && device.getName().startsWith("FN")) {
                     getFirmwareCmd[0] = (byte)0xD4;
                 }
                 LOG.debug("Getting firmware...");
@@ -301,10 +319,9 @@ public class DongleBLE extends BGAPIDefaultListener implements RobotCommunicator
     }
 
     private void removeConnectionInfo(int connection) {
-        BLEDevice robot = connectedDevices[connection];
+        BLEDevice robot = connectedDevices.remove(connection);
         if (robot != null) {
             robotIndexes.remove(robot.getName());
-            connectedDevices[connection] = null;
             Integer disconnectIndex = disconnectRequests.remove(robot.getName());
             robotManager.receiveDisconnectionEvent(robot.getName(), disconnectIndex != null);
         }
@@ -446,10 +463,9 @@ public class DongleBLE extends BGAPIDefaultListener implements RobotCommunicator
             if (flags == 0x05) {
                 LOG.info("Connection made. Connection number= " + conn);
 
-                if (connectedDevices[conn] != null) {
+                if (connectedDevices.putIfAbsent(conn, bledConnecting) != null) {
                     LOG.error("DEVICE ALREADY CONNECTED?");
                 } else {
-                    connectedDevices[conn] = bledConnecting;
                     robotIndexes.put(bledConnecting.getName(), conn);
                     bledConnecting = null;
                 }
@@ -555,8 +571,9 @@ public class DongleBLE extends BGAPIDefaultListener implements RobotCommunicator
                 serviceAttHandleList.removeAll(serviceAttHandleList);
 
                 //Connection is complete, update the data structures
-                if (connectedDevices[connection] != null) {
-                    sendNotificationSetup(connectedDevices[connection], connection, true);
+                BLEDevice connected = connectedDevices.get(connection);
+                if (connected != null) {
+                    sendNotificationSetup(connected, connection, true);
                 }
 
                 characteristicDiscover[connection] = false;
@@ -599,9 +616,10 @@ public class DongleBLE extends BGAPIDefaultListener implements RobotCommunicator
 
         String uuidString = bytesToUUIDString(uuid);
         //LOG.debug("Found {}, looking for {}", uuidString, SERVICE_UUID);
-        if (uuidString.equals(WRITE_CHARACTERISTIC_UUID) && connectedDevices[connection] != null) {
+        BLEDevice device = connectedDevices.get(connection);
+        if (uuidString.equals(WRITE_CHARACTERISTIC_UUID) && device != null) {
             LOG.debug("Setting TX handle to {}", chrhandle);
-            connectedDevices[connection].setTxHandle(chrhandle);
+            device.setTxHandle(chrhandle);
         }
 
         if (discovery_state == ATTRIBUTES && discovery_srv != null) {
@@ -621,9 +639,9 @@ public class DongleBLE extends BGAPIDefaultListener implements RobotCommunicator
                 LOG.debug("Primary address: " + primaryAddress);
                 int secondaryAddress = ((uuid[1] & 0xFF) << 8) + (uuid[0] & 0xFF);   //Unsigned Int SHift
 
-                if (primaryAddress.equals(NOTIFY_CHARACTERISTIC_UUID) && secondaryAddress == HB_NOTIFY_CTL_CHAR && connectedDevices[connection] != null) {
+                if (primaryAddress.equals(NOTIFY_CHARACTERISTIC_UUID) && secondaryAddress == HB_NOTIFY_CTL_CHAR && device != null) {
                     LOG.debug("Setting RX handle to {}", chrhandle);
-                    connectedDevices[connection].setRxHandle(chrhandle);
+                    device.setRxHandle(chrhandle);
                 }
             }
         }
@@ -646,7 +664,7 @@ public class DongleBLE extends BGAPIDefaultListener implements RobotCommunicator
             }
         } else {  //Incoming Notifications
             //LOG.debug("Receive notification for {} with value {}.", connection, bytesToString(value));
-            BLEDevice robot = connectedDevices[connection];
+            BLEDevice robot = connectedDevices.get(connection);
             if (robot != null) {
                 if (value.length < 10 && robot.getMicrobitVersion() == 0) {
                     //The first notification should be version information
@@ -658,7 +676,7 @@ public class DongleBLE extends BGAPIDefaultListener implements RobotCommunicator
                     LOG.debug("Set microbit version for {} to {}", robot.getName(), robot.getMicrobitVersion());
 
                     //send poll start
-                    byte[] pollStart = (version == 2) ? new byte[] { 0x62, 0x70 } : new byte[] { 0x62, 0x67 };
+                    byte[] pollStart = (version == 2) ? CommandCodec.POLL_START_V2 : CommandCodec.POLL_START_V1;
                     sendCommand(pollStart, connection);
 
                     //finally call the connection successful
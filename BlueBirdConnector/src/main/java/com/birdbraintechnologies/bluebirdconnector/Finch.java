@@ -14,12 +14,6 @@ public class Finch extends Robot {
         rawToVoltage = 0.00937;
         voltageConst = 320;
         batteryTolerance = 0.05;
-        FREQ_INDEX_MSB = 16;
-        FREQ_INDEX_LSB = 17;
-        DURATION_INDEX_MSB = 18;
-        DURATION_INDEX_LSB = 19;
-        setAllCmd = (byte) 0xD0;
-        stopAllCmd = new byte[] {(byte)0xDF, (byte)0xFF, (byte)0xFF, (byte)0xFF};
     }
 
 
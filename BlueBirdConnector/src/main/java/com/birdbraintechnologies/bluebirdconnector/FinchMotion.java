@@ -0,0 +1,129 @@
+package com.birdbraintechnologies.bluebirdconnector;
+
+import static com.birdbraintechnologies.bluebirdconnector.RobotManager.*;
+
+// One Finch wheel command: a speed and a tick count for each wheel, ready for
+// Robot.updateMotors. The factory methods hold the conversions for the
+// move, turn, curve and wheels blocks, and return null when the request
+// works out to no motion at all.
+public class FinchMotion {
+    static final Log LOG = Log.getLogger(FinchMotion.class);
+
+    public final int speedL;
+    public final int ticksL;
+    public final int speedR;
+    public final int ticksR;
+
+    public FinchMotion(int speedL, int ticksL, int speedR, int ticksR) {
+        this.speedL = speedL;
+        this.ticksL = ticksL;
+        this.speedR = speedR;
+        this.ticksR = ticksR;
+    }
+
+    // Continuous motion (or a stop) has no end for the robot to report.
+    public boolean isContinuous() {
+        return ticksL == 0 && ticksR == 0;
+    }
+
+    public static FinchMotion move(String dir, double dist, double speed) {
+        int spd = (int) Math.round(speed);
+        int tks = (int) Math.round(dist * FINCH_TICKS_PER_CM);
+
+        if (dir.equals("Backward")) { spd = -spd; }
+        if (tks < 0) {
+            spd = -spd;
+            tks = Math.abs(tks);
+        }
+        LOG.debug("move {} {}", spd, tks);
+        if (tks == 0) { //tks=0 is the command for continuous motion
+            return null;
+        }
+        return new FinchMotion(spd, tks, spd, tks);
+    }
+
+    public static FinchMotion turn(String direction, double angle, double speed) {
+        int spd = (int) Math.round(speed);
+        int ticks = (int) Math.round(angle * FINCH_TICKS_PER_DEGREE);
+
+        if (ticks == 0) { //ticks=0 is the command for continuous motion
+            return null;
+        }
+        boolean shouldTurnRight = direction.equals("Right");
+        if (ticks < 0) {
+            shouldTurnRight = !shouldTurnRight;
+            ticks = Math.abs(ticks);
+        }
+        if (shouldTurnRight) {
+            return new FinchMotion(spd, ticks, -spd, ticks);
+        } else {
+            return new FinchMotion(-spd, ticks, spd, ticks);
+        }
+    }
+
+    // tDir: "Forward"/"Backward", aDiam: arc diameter in cm (negative will swap aDir),
+    // aDir: side of the circle, angle: degrees of arc, speed: power of the outer wheel.
+    public static FinchMotion curve(String tDir, double aDiam, String aDir, double angle, double speed) {
+        int outerTks = (int)Math.round((Math.abs(aDiam) + FINCH_WHEELBASE_CM) * Math.PI * Math.abs(angle) / 360 * FINCH_TICKS_PER_CM);
+        int innerTks = (int)Math.round((Math.abs(aDiam) - FINCH_WHEELBASE_CM) * Math.PI * Math.abs(angle) / 360 * FINCH_TICKS_PER_CM);
+        // wheel with longer travel uses the requested power level
+        int outerSpd = (int)Math.round(Math.abs(speed));
+        if (outerTks == 0 || outerSpd == 0) {
+            return null;
+        }
+        // wheel with shorter travel uses a lower absolute power (but it could be zero, or negated),
+        int innerSpd = (int)Math.round(Math.abs(speed) * innerTks / outerTks);
+        if (innerSpd == 0)
+            innerTks = 0;
+
+        boolean circleOnRight = aDir.equals("Right");
+        if (aDiam < 0)
+            circleOnRight = !circleOnRight;
+
+        boolean movingForward = !tDir.equals("Backward");
+        if (angle < 0)
+            movingForward = !movingForward;
+        if (speed < 0)
+            movingForward = !movingForward;
+
+        LOG.debug("curve {} {} {} {} {} {}", outerTks, outerSpd, innerTks, innerSpd, circleOnRight, movingForward);
+        if (movingForward && circleOnRight) // forward, right-is-inside
+            return new FinchMotion(outerSpd, outerTks, innerSpd, innerTks);
+        else if (movingForward) // forward, left-is-inside
+            return new FinchMotion(innerSpd, innerTks, outerSpd, outerTks);
+        else if (circleOnRight) // backward, right-is-inside
+            return new FinchMotion(-outerSpd, outerTks, -innerSpd, innerTks);
+        else // backward, left-is-inside
+            return new FinchMotion(-innerSpd, innerTks, -outerSpd, outerTks);
+    }
+
+    // Distances are optional; pass null for continuous motion.
+    public static FinchMotion wheels(double leftSpeed, double rightSpeed, Double cmL, Double cmR) {
+        int left = (int) Math.round(leftSpeed);
+        int right = (int) Math.round(rightSpeed);
+        int ticksL = 0;
+        int ticksR = 0;
+        if (cmL != null && cmR != null) {
+            ticksL = (int) Math.round(FINCH_TICKS_PER_CM * cmL);
+            ticksR = (int) Math.round(FINCH_TICKS_PER_CM * cmR);
+            if (ticksL == 0 && cmL > 0.0)
+                ticksL = 1;
+            else if (ticksL == 0 && cmL < 0.0)
+                ticksL = -1;
+            if (ticksL < 0) {
+                left = -left;
+                ticksL = -ticksL;
+            }
+            if (ticksR == 0 && cmR > 0.0)
+                ticksR = 1;
+            else if (ticksR == 0 && cmR < 0.0)
+                ticksR = -1;
+            if (ticksR < 0) {
+                right = -right;
+                ticksR = -ticksR;
+            }
+        }
+        LOG.debug("wheels {} {} {} {}", left, ticksL, right, ticksR);
+        return new FinchMotion(left, ticksL, right, ticksR);
+    }
+}
@@ -0,0 +1,132 @@
+package com.birdbraintechnologies.bluebirdconnector;
+
+import jnr.enxio.channels.Native;
+import jnr.enxio.channels.NativeSocketChannel;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+// A GATT characteristic acquired from BlueZ with AcquireWrite or
+// AcquireNotify. BlueZ hands back one end of a SOCK_SEQPACKET socket, so
+// each write sends one value and each read returns one notification, without
+// a D-Bus message or a trip through dbus-daemon per frame. BlueZ makes the
+// socket non-blocking, so it is switched back for the reader thread.
+public class GattSocket {
+    static final Log LOG = Log.getLogger(GattSocket.class);
+
+    private final String name;
+    private final ReadableByteChannel in;
+    private final WritableByteChannel out;
+    private final int mtu;
+    private volatile boolean closed = false;
+
+    // in or out may be null for a socket only used in one direction.
+    GattSocket(String name, ReadableByteChannel in, WritableByteChannel out, int mtu) {
+        this.name = name;
+        this.in = in;
+        this.out = out;
+        this.mtu = mtu;
+    }
+
+    public static GattSocket forWrite(String name, int fd, int mtu) {
+        return new GattSocket(name, null, openChannel(fd), mtu);
+    }
+
+    public static GattSocket forNotify(String name, int fd, int mtu) {
+        return new GattSocket(name, openChannel(fd), null, mtu);
+    }
+
+    // A new channel takes itself to be blocking already, so its
+    // configureBlocking(true) would leave the descriptor as it is.
+    private static NativeSocketChannel openChannel(int fd) {
+        Native.setBlocking(fd, true);
+        return new NativeSocketChannel(fd);
+    }
+
+    public int getMtu() {
+        return mtu;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    // Writes one value. Fails for a value longer than the MTU, which only
+    // a D-Bus WriteValue can split up.
+    public void write(byte[] value) throws IOException {
+        if (closed) {
+            throw new IOException("GATT socket for " + name + " is closed");
+        }
+        if (value.length > mtu) {
+            throw new IOException("value of " + value.length + " bytes is over the MTU of " + mtu);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(value);
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    // Starts a daemon thread that passes each notification to onValue, and
+    // runs onClosed once the socket closes or fails, unless close() was called.
+    public void startReader(Consumer<byte[]> onValue, Runnable onClosed) {
+        Thread reader = new Thread(() -> read(onValue, onClosed), "GattSocket-" + name);
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    private void read(Consumer<byte[]> onValue, Runnable onClosed) {
+        ByteBuffer buffer = ByteBuffer.allocate(mtu);
+        try {
+            while (!closed) {
+                buffer.clear();
+                int n = in.read(buffer);
+                if (n < 0) {
+                    break;
+                }
+                if (n > 0) {
+                    onValue.accept(Arrays.copyOf(buffer.array(), n));
+                }
+            }
+        } catch (IOException e) {
+            if (!closed) {
+                LOG.error("GATT socket for {} failed: {}", name, e.toString());
+            }
+        }
+        if (!closed) {
+            closed = true;
+            LOG.debug("GATT socket for {} was closed by BlueZ", name);
+            closeChannels();
+            onClosed.run();
+        }
+    }
+
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        closeChannels();
+    }
+
+    // Closing a socket does not wake a reader blocked in read, shutting it
+    // down does
+    private void closeChannels() {
+        try {
+            if (in instanceof NativeSocketChannel) {
+                ((NativeSocketChannel) in).shutdownInput();
+            }
+            if (in != null) {
+                in.close();
+            }
+            if (out != null) {
+                out.close();
+            }
+        } catch (IOException e) {
+            LOG.debug("closing GATT socket for {}: {}", name, e.toString());
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.birdbraintechnologies.bluebirdconnector;
+
+import com.google.gson.JsonObject;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+// Releases the staged output of a group of held robots in one scheduler
+// tick (see Robot.holdOutput), and records when each robot's first command
+// afterwards was dispatched and written, to report the skew achieved
+// between them.
+public class GroupRelease {
+    static final Log LOG = Log.getLogger(GroupRelease.class);
+
+    private final List<Robot> robots;
+    private final long requestedAtMs; // wall clock
+    private volatile long releasedNs;
+    private final ConcurrentHashMap<String, Long> dispatchNs = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Long> writtenNs = new ConcurrentHashMap<>();
+
+    // atMs is a wall clock time (ms since the epoch) to release at, or 0 for now.
+    public GroupRelease(List<Robot> robots, long atMs) {
+        this.robots = robots;
+        this.requestedAtMs = atMs;
+    }
+
+    public void schedule() {
+        long delayMs = (requestedAtMs > 0) ? requestedAtMs - System.currentTimeMillis() : 0;
+        RobotScheduler.getSharedInstance().schedule(this::release, Math.max(0, delayMs), TimeUnit.MILLISECONDS);
+    }
+
+    private void release() {
+        releasedNs = System.nanoTime();
+        for (Robot robot : robots) {
+            robot.releaseOutput(this);
+        }
+        LOG.debug("Released {} robots", robots.size());
+    }
+
+    // Called by Robot for its first command after the release.
+    void dispatched(Robot robot, long ns) {
+        dispatchNs.putIfAbsent(robot.name, ns);
+    }
+
+    void written(Robot robot, long ns) {
+        writtenNs.putIfAbsent(robot.name, ns);
+    }
+
+    public JsonObject toJson() {
+        JsonObject json = new JsonObject();
+        json.addProperty("robots", robots.size());
+        json.addProperty("requestedAtMs", requestedAtMs);
+        json.addProperty("released", releasedNs != 0);
+        json.addProperty("dispatched", dispatchNs.size());
+        json.addProperty("written", writtenNs.size());
+        if (releasedNs != 0) {
+            json.addProperty("releaseToDispatchUs", spreadFromRelease(dispatchNs));
+            json.addProperty("dispatchSkewUs", skew(dispatchNs));
+            json.addProperty("writeSkewUs", skew(writtenNs));
+        }
+        return json;
+    }
+
+    // Latest first command, measured from the release
+    private long spreadFromRelease(ConcurrentHashMap<String, Long> times) {
+        long latest = releasedNs;
+        for (long t : times.values()) {
+            if (t - latest > 0) { latest = t; }
+        }
+        return TimeUnit.NANOSECONDS.toMicros(latest - releasedNs);
+    }
+
+    private static long skew(ConcurrentHashMap<String, Long> times) {
+        if (times.size() < 2) {
+            return 0;
+        }
+        long first = Long.MAX_VALUE;
+        long last = Long.MIN_VALUE;
+        for (long t : times.values()) {
+            first = Math.min(first, t);
+            last = Math.max(last, t);
+        }
+        return TimeUnit.NANOSECONDS.toMicros(last - first);
+    }
+}
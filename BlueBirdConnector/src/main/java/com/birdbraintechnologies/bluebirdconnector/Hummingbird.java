@@ -15,12 +15,6 @@ public class Hummingbird extends Robot {
         voltageConst = 0;
         batteryMask = 0xFF;
         batteryTolerance = 0.05;
-        FREQ_INDEX_MSB = 15;
-        FREQ_INDEX_LSB = 16;
-        DURATION_INDEX_MSB = 17;
-        DURATION_INDEX_LSB = 18;
-        setAllCmd = (byte) 0xCA;
-        stopAllCmd = new byte[] {(byte)0xCB, (byte)0xFF, (byte)0xFF, (byte)0xFF};
     }
 
 
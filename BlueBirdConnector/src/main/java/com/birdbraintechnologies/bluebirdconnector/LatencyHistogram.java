@@ -0,0 +1,66 @@
+package com.birdbraintechnologies.bluebirdconnector;
+
+import com.google.gson.JsonObject;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Lock-free latency distribution with power-of-two microsecond buckets:
+// bucket 0 holds everything under 1us, bucket n holds [2^(n-1), 2^n) us.
+// Percentiles are reported as the upper bound of the bucket they fall in,
+// (capped at the maximum), which is plenty of resolution for telling a 2ms stage from a 40ms one.
+public class LatencyHistogram {
+
+    private static final int BUCKETS = 32;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalMicros = new AtomicLong();
+    private final AtomicLong maxMicros = new AtomicLong();
+
+    public void record(long nanos) {
+        long micros = Math.max(0, nanos / 1000);
+        int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+        buckets.incrementAndGet(bucket);
+        count.incrementAndGet();
+        totalMicros.addAndGet(micros);
+        long max = maxMicros.get();
+        while (micros > max && !maxMicros.compareAndSet(max, micros)) {
+            max = maxMicros.get();
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    // Upper bound, in microseconds, of the bucket holding the given fraction
+    // of the samples.
+    public long percentileMicros(double fraction) {
+        long total = count.get();
+        if (total == 0) {
+            return 0;
+        }
+        long target = (long) Math.ceil(total * fraction);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets.get(i);
+            if (seen >= target) {
+                return Math.min(1L << i, maxMicros.get());
+            }
+        }
+        return maxMicros.get();
+    }
+
+    public JsonObject toJson() {
+        JsonObject json = new JsonObject();
+        long n = count.get();
+        json.addProperty("count", n);
+        json.addProperty("meanUs", n == 0 ? 0 : totalMicros.get() / n);
+        json.addProperty("p50Us", percentileMicros(0.50));
+        json.addProperty("p90Us", percentileMicros(0.90));
+        json.addProperty("p99Us", percentileMicros(0.99));
+        json.addProperty("maxUs", maxMicros.get());
+        return json;
+    }
+}
@@ -11,13 +11,19 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
 
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 
 import org.freedesktop.dbus.DBusPath;
+import org.freedesktop.dbus.FileDescriptor;
+import org.freedesktop.dbus.Tuple;
 import org.freedesktop.dbus.annotations.DBusInterfaceName;
+import org.freedesktop.dbus.annotations.Position;
 import org.freedesktop.dbus.connections.impl.DBusConnection;
 import org.freedesktop.dbus.connections.impl.DBusConnectionBuilder;
 import org.freedesktop.dbus.exceptions.DBusException;
@@ -25,6 +31,7 @@ import org.freedesktop.dbus.interfaces.DBusInterface;
 import org.freedesktop.dbus.interfaces.DBusSigHandler;
 import org.freedesktop.dbus.interfaces.ObjectManager;
 import org.freedesktop.dbus.interfaces.Properties;
+import org.freedesktop.dbus.types.UInt16;
 import org.freedesktop.dbus.types.UInt32;
 import org.freedesktop.dbus.types.Variant;
 
@@ -45,9 +52,11 @@ public class LinuxBluezBLE implements RobotCommunicator {
 
     private static final byte[] GET_VERSION_FINCH = new byte[] { (byte)0xD4 };
     private static final byte[] GET_VERSION_OTHER = new byte[] { (byte)0xCF };
-    private static final byte[] POLL_START_V1 = new byte[] { 0x62, 0x67 };
-    private static final byte[] POLL_START_V2 = new byte[] { 0x62, 0x70 };
-    private static final byte[] POLL_STOP = new byte[] { 0x62, 0x73 };
+
+    // BLUEBIRD_BLUEZ_TRANSPORT=fd writes and receives notifications through
+    // sockets from AcquireWrite/AcquireNotify instead of D-Bus messages, for
+    // robots and D-Bus connections that support it. Anything else uses D-Bus.
+    private static final boolean USE_GATT_SOCKETS = "fd".equalsIgnoreCase(System.getenv("BLUEBIRD_BLUEZ_TRANSPORT"));
 
     private final RobotManager robotManager = RobotManager.getSharedInstance();
     private final FrontendServer frontendServer = FrontendServer.getSharedInstance();
@@ -73,6 +82,13 @@ public class LinuxBluezBLE implements RobotCommunicator {
     //    API handlers, these signal handler functions do minimal work, mostly
     //    just queueing notifications on the primary thread's work queue. The
     //    worker thread examines the notifications and does something with them.
+    //    Sensor data skips ahead on its own lane (dataQueue), and other property
+    //    changes are merged per path while waiting (pendingProps).
+    //  - D-Bus calls that block on the robot (Connect, StartNotify, WriteValue,
+    //    Disconnect, ...) don't run on the worker. Each robot has a lane on the
+    //    dbusCalls pool where its calls run in order, and any result comes back
+    //    to the worker as a continuation. Robot state is still only touched by
+    //    the worker, and a slow robot only delays its own lane.
 
     // BLERobotDevice object example lifetime and state machine:
     //
@@ -146,9 +162,37 @@ public class LinuxBluezBLE implements RobotCommunicator {
     //         '-----> Robot becomes DEAD.
     //
     private final LinkedBlockingDeque<Work> workQueue = new LinkedBlockingDeque<>();
+
+    // Notification values (sensor data, version replies) bypass workQueue:
+    // they wait here, and one drain task at the front of workQueue runs all
+    // of them in a batch ahead of everything else.
+    private final ConcurrentLinkedQueue<Work> dataQueue = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean dataDrainQueued = new AtomicBoolean(false);
+    private static final int MAX_DATA_BATCH = 64; // then the rest of workQueue gets a turn
+
+    // Other PropertiesChanged signals (RSSI, Connected, ManufacturerData, ...)
+    // are merged per object path while they wait, so a scan's flood of them
+    // comes down to one task per device holding the latest value of each.
+    private final ConcurrentHashMap<String, Map<String, Variant<?>>> pendingProps = new ConcurrentHashMap<>();
+
+    // Commands waiting to be written, per robot name. A drain task on the
+    // robot's D-Bus lane writes them out, one drain at a time.
+    private final ConcurrentHashMap<String, OutboundQueue> outboundQueues = new ConcurrentHashMap<>();
     private final Worker worker = new Worker();
     private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
 
+    // Blocking D-Bus calls (Connect, StartNotify, WriteValue, ...) run here
+    // instead of on the worker, in order per robot (see Worker.callAsync), so
+    // a slow call for one robot never holds up another robot's data.
+    private final ExecutorService dbusCalls = Executors.newCachedThreadPool(new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "BluezCall-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
 
     //
     // Implementation for Front-end RobotCommunicator API
@@ -202,6 +246,10 @@ public class LinuxBluezBLE implements RobotCommunicator {
         worker.interrupt();
         try { worker.join(); }
         catch (InterruptedException e) { }
+        // Let the worker's final disconnects go out before closing the bus
+        dbusCalls.shutdown();
+        try { dbusCalls.awaitTermination(2, TimeUnit.SECONDS); }
+        catch (InterruptedException e) { }
         conn.disconnect();
         conn = null;
     }
@@ -292,10 +340,37 @@ public class LinuxBluezBLE implements RobotCommunicator {
     }
 
     public void sendCommand(String robotName, byte[] command) {
-        // copy cmd, so caller doesn't modify it before workQueue is processed
+        sendCommand(robotName, command, null);
+    }
+
+    @Override
+    public void sendCommand(String robotName, byte[] command, Runnable written) {
+        // copy cmd, so caller doesn't modify it before the queue is drained
         final byte cmd[] = Arrays.copyOf(command, command.length);
         LOG.info("Sending command to {}: {}", robotName, Utilities.bytesToString(cmd));
-        workQueue.offer(worker.newSendRequest(robotName, cmd));
+        if (outboundQueue(robotName).offer(cmd, written))
+            workQueue.offer(worker.newDrainRequest(robotName));
+    }
+
+    @Override
+    public void sendPriorityCommand(String robotName, byte[] command, Runnable written) {
+        final byte cmd[] = Arrays.copyOf(command, command.length);
+        LOG.info("Sending priority command to {}: {}", robotName, Utilities.bytesToString(cmd));
+        // Anything still queued for this robot was sent before the stop, so drop it.
+        // Drain from the head of workQueue even if a drain is already waiting
+        // further back, so the stop doesn't wait behind other work.
+        outboundQueue(robotName).replaceAll(cmd, written);
+        workQueue.offerFirst(worker.newDrainRequest(robotName));
+    }
+
+    @Override
+    public JsonObject getQueueMetrics(String robotName) {
+        OutboundQueue queue = outboundQueues.get(robotName);
+        return (queue == null) ? null : queue.toJson();
+    }
+
+    private OutboundQueue outboundQueue(String robotName) {
+        return outboundQueues.computeIfAbsent(robotName, (name) -> new OutboundQueue(name, OutboundQueue.DEFAULT_CAPACITY));
     }
 
 
@@ -321,6 +396,10 @@ public class LinuxBluezBLE implements RobotCommunicator {
         Device1 device;
         GattCharacteristic1 txChar, rxChar;
         String txCharPath, rxCharPath;
+        GattSocket txSocket, rxSocket; // acquired txChar and rxChar, or null to use D-Bus, worker only
+        CompletableFuture<Void> calls = CompletableFuture.completedFuture(null); // last D-Bus call queued, worker only
+        int attempt; // counts connection attempts, so replies to an earlier one can be told apart
+        byte[] rxBuffer = new byte[20]; // reused for every notification, only touched by the worker
         public BLERobotDevice(String p, String a, String n) {
             path = p;
             addr = a;
@@ -339,23 +418,23 @@ public class LinuxBluezBLE implements RobotCommunicator {
             LOG.debug("  device: {}", (device == null ? "-" : "non-null"));
             LOG.debug("  txChar: {}", txChar == null ? "-" : txCharPath);
             LOG.debug("  rxChar: {}", rxChar == null ? "-" : rxCharPath);
+            LOG.debug("  sockets: tx {} rx {}", txSocket != null, rxSocket != null);
+        }
+        // dbus-java hands "ay" values over as byte[], which is used as is.
+        // A List<Byte> is still accepted and unboxed into the reused buffer.
+        public byte[] toRxBytes(Object value) {
+            if (value instanceof byte[])
+                return (byte[]) value;
+            List<?> list = (List<?>) value;
+            if (rxBuffer.length != list.size())
+                rxBuffer = new byte[list.size()];
+            for (int i = 0; i < rxBuffer.length; i++)
+                rxBuffer[i] = (Byte) list.get(i);
+            return rxBuffer;
         }
         public boolean owns(Work work) {
             return work.path.equals(name) || work.path.equals(path) || work.path.startsWith(path + "/");
         }
-        public void send(byte[] cmd) throws DBusException {
-            LOG.debug("sending to {}: cmd={}", name, Utilities.bytesToString(cmd));
-            txChar.WriteValue(toByteList(cmd), Map.of());
-        }
-        public boolean checkedSend(byte[] cmd) {
-            try {
-                send(cmd);
-                return true;
-            } catch (Exception e) {
-                LOG.error("error writing to " + path + ": cmd=" + Utilities.bytesToString(cmd));
-                return false;
-            }
-        }
         public void reportTo(FrontendServer frontendServer) {
             JsonObject scanResponse = JsonParser.parseString("{'packetType': 'discovery', 'name': "+ name +", 'rssi': "+ rssi +"}").getAsJsonObject();
             LOG.debug("scan: {}", scanResponse.toString());
@@ -374,6 +453,56 @@ public class LinuxBluezBLE implements RobotCommunicator {
         private HashMap<String, BLERobotDevice> robotsByPath = new HashMap<>();
         private HashMap<String, BLERobotDevice> robotsByRxPath = new HashMap<>();
 
+        // Where a robot's writes go, taken from the robot on the worker when
+        // the write is queued, so the lane never reads the robot's fields.
+        // After construction it is only used on the robot's lane.
+        private final class Tx {
+            final String name, path;
+            final GattCharacteristic1 txChar;
+            GattSocket txSocket;
+            final Runnable socketFailed;
+
+            Tx(BLERobotDevice robot) {
+                name = robot.name;
+                path = robot.path;
+                txChar = robot.txChar;
+                GattSocket socket = robot.txSocket;
+                txSocket = socket;
+                socketFailed = () -> workQueue.offer(new Work("socket write failed", path, () -> {
+                    if (robot.txSocket == socket)
+                        robot.txSocket = null;
+                }));
+            }
+
+            void send(byte[] cmd) throws DBusException {
+                LOG.debug("sending to {}: cmd={}", name, Utilities.bytesToString(cmd));
+                if (txSocket != null) {
+                    try {
+                        txSocket.write(cmd);
+                        return;
+                    } catch (IOException e) {
+                        // BlueZ refuses WriteValue while the socket is open.
+                        // The worker drops the socket from the robot.
+                        LOG.error("socket write to {} failed, falling back to D-Bus: {}", name, e.toString());
+                        txSocket.close();
+                        txSocket = null;
+                        socketFailed.run();
+                    }
+                }
+                txChar.WriteValue(cmd, Map.of());
+            }
+
+            boolean checkedSend(byte[] cmd) {
+                try {
+                    send(cmd);
+                    return true;
+                } catch (Exception e) {
+                    LOG.error("error writing to " + path + ": cmd=" + Utilities.bytesToString(cmd));
+                    return false;
+                }
+            }
+        }
+
         public void run() {
             try {
 
@@ -390,15 +519,15 @@ public class LinuxBluezBLE implements RobotCommunicator {
 
                 // Set Bluez handler, used for reading version info and sensor data
                 conn.addSigHandler(Properties.PropertiesChanged.class,
-                    (sig) -> workQueue.offer(
-                        new Work("dbus data received", sig.getPath(),
-                            () -> bluetoothValueChanged(sig.getPath(), sig.getPropertiesChanged()))));
+                    (sig) -> async_propertiesChanged(sig.getPath(), sig.getPropertiesChanged()));
 
                 // Enumerate existing Bluetooth devices
                 for (var entry : manager.GetManagedObjects().entrySet())
                     bluetoothIfaceAdded(false, entry.getKey().getPath(), entry.getValue());
 
-                // Main work loop
+                // Main work loop. Removals and priority commands rely on
+                // taking one task at a time from workQueue, so only the data
+                // lane is drained in batches.
                 while (!Thread.currentThread().isInterrupted()) {
                     Work work = workQueue.take();
                     work.task.run(work);
@@ -624,8 +753,7 @@ public class LinuxBluezBLE implements RobotCommunicator {
                 if (robot.txChar != null && robot.rxChar != null) {
                     LOG.info("Enabling notifications and getting version info for {}", robot.name);
                     robot.status = CONNECTING_PROBE;
-                    robot.rxChar.StartNotify();
-                    robot.checkedSend(robot.name.startsWith("FN") ? GET_VERSION_FINCH : GET_VERSION_OTHER);
+                    enableNotifications(robot);
                 }
             } catch (Exception e) {
                 LOG.error("failed to enable notifications or get version for " + robot.name);
@@ -633,6 +761,120 @@ public class LinuxBluezBLE implements RobotCommunicator {
             }
         }
 
+        // Runs a blocking D-Bus call for robot on the dbusCalls pool, after
+        // every call queued earlier for the same robot. Each robot's calls stay
+        // in order while different robots' calls run in parallel. done, if not
+        // null, gets the result or the failure back on the worker thread.
+        private <T> void callAsync(BLERobotDevice robot, String desc, DBusCall<T> call, BiConsumer<T, Exception> done) {
+            String path = robot.path;
+            robot.calls = robot.calls.thenRunAsync(() -> {
+                T result = null;
+                Exception failure = null;
+                try {
+                    result = call.call();
+                } catch (Exception e) {
+                    failure = e;
+                }
+                if (done != null) {
+                    T r = result;
+                    Exception f = failure;
+                    workQueue.offer(new Work(desc, path, () -> done.accept(r, f)));
+                }
+            }, dbusCalls);
+        }
+
+        // Subscribes to rxChar, then asks for the version. With
+        // USE_GATT_SOCKETS, txChar and rxChar are acquired as sockets first,
+        // and each one that can't be falls back to D-Bus.
+        private void enableNotifications(BLERobotDevice robot) {
+            boolean useSockets = USE_GATT_SOCKETS && conn.isFileDescriptorSupported();
+            if (USE_GATT_SOCKETS && !useSockets)
+                LOG.info("D-Bus connection can't pass file descriptors, using D-Bus for {}", robot.name);
+            String name = robot.name;
+            GattCharacteristic1 txChar = robot.txChar, rxChar = robot.rxChar;
+            int attempt = robot.attempt;
+            callAsync(robot, "notifications enabled", () -> {
+                GattSocket[] sockets = new GattSocket[2];
+                if (useSockets) {
+                    sockets[0] = acquireSocket(name, txChar, true);
+                    sockets[1] = acquireSocket(name, rxChar, false);
+                }
+                if (sockets[1] == null) {
+                    try {
+                        rxChar.StartNotify();
+                    } catch (Exception e) {
+                        if (sockets[0] != null)
+                            sockets[0].close();
+                        throw e;
+                    }
+                }
+                return sockets;
+            }, (sockets, e) -> notificationsEnabled(robot, attempt, sockets, e));
+        }
+
+        private void notificationsEnabled(BLERobotDevice robot, int attempt, GattSocket[] sockets, Exception failure) {
+            if (failure != null) {
+                LOG.error("failed to enable notifications for " + robot.name + ": " + failure.getMessage());
+                // let connection timeout handle the cleanup
+                return;
+            }
+            if (robot.attempt != attempt || robot.status != CONNECTING_PROBE) {
+                for (GattSocket socket : sockets) {
+                    if (socket != null)
+                        socket.close();
+                }
+                return;
+            }
+            robot.txSocket = sockets[0];
+            robot.rxSocket = sockets[1];
+            GattSocket socket = robot.rxSocket;
+            if (socket != null) {
+                String rxPath = robot.rxCharPath;
+                socket.startReader(
+                    (value) -> offerData(new Work("socket data received", rxPath, () -> {
+                        if (robot.rxSocket == socket)
+                            bluetoothRxResponse(robot, value);
+                    })),
+                    () -> workQueue.offer(new Work("socket closed", rxPath, () -> rxSocketClosed(robot, socket))));
+            }
+            byte[] getVersion = robot.name.startsWith("FN") ? GET_VERSION_FINCH : GET_VERSION_OTHER;
+            Tx tx = new Tx(robot);
+            callAsync(robot, "version requested", () -> tx.checkedSend(getVersion), null);
+        }
+
+        private GattSocket acquireSocket(String name, GattCharacteristic1 characteristic, boolean write) {
+            try {
+                AcquiredSocket acquired = write ? characteristic.AcquireWrite(Map.of()) : characteristic.AcquireNotify(Map.of());
+                int fd = acquired.fd.getIntFileDescriptor();
+                int mtu = acquired.mtu.intValue();
+                LOG.info("Acquired {} socket for {}, mtu {}", write ? "write" : "notify", name, mtu);
+                return write ? GattSocket.forWrite(name, fd, mtu) : GattSocket.forNotify(name, fd, mtu);
+            } catch (Exception e) {
+                LOG.info("Can't acquire {} socket for {}, using D-Bus: {}", write ? "write" : "notify", name, e.toString());
+                return null;
+            }
+        }
+
+        // BlueZ closed the notify socket while the robot is still ours, so
+        // go back to D-Bus notifications.
+        private void rxSocketClosed(BLERobotDevice robot, GattSocket socket) {
+            if (robot.rxSocket != socket)
+                return;
+            robot.rxSocket = null;
+            if (robot.status != CONNECTED && robot.status != CONNECTING_PROBE)
+                return;
+            LOG.info("Notify socket for {} closed, falling back to D-Bus", robot.name);
+            GattCharacteristic1 rxChar = robot.rxChar;
+            String rxPath = robot.rxCharPath;
+            callAsync(robot, "notifications enabled", () -> {
+                rxChar.StartNotify();
+                return null;
+            }, (r, e) -> {
+                if (e != null)
+                    LOG.error("can't subscribe to " + rxPath);
+            });
+        }
+
         private void bluetoothValueChanged(String path, Map<String, Variant<?>> props) {
             // Filter early for robot to avoid cluttering the logs
             BLERobotDevice robot;
@@ -642,12 +884,11 @@ public class LinuxBluezBLE implements RobotCommunicator {
                 // for (var entry : props.entrySet())
                 //     LOG.debug("  key: {}   value: {}", entry.getKey(), entry.getValue().getValue().toString());
 
-                // We only care about Value changes, object should be a List of bytes
-                List val = getProp(props, "Value", List.class);
-                if (val == null)
+                // We only care about Value changes, an array of bytes
+                Object val = getProp(props, "Value", Object.class);
+                if (!(val instanceof byte[] || val instanceof List))
                     return;
-                @SuppressWarnings("unchecked")
-                byte[] value = toByteArray((List<Byte>)val);
+                byte[] value = robot.toRxBytes(val);
                 // LOG.debug("Robot {} received data from {}: {}", robot.name, path, Utilities.bytesToString(value));
                 bluetoothRxResponse(robot, value);
             } else if ((robot = robotsByPath.get(path)) != null) {
@@ -665,24 +906,22 @@ public class LinuxBluezBLE implements RobotCommunicator {
         }
 
         private void bluetoothRxResponse(BLERobotDevice robot, byte[] value) {
-            if (value.length >= 4 && robot.status == CONNECTING_PROBE) {
+            if (value.length >= 4 && robot.status == CONNECTING_PROBE && robot.version == 0) {
                 // Response for GET_VERSION command.
                 // Example response data: { 0x2, 0x2, 0x44, 0x22 }
                 // where 0x44 means "Finch", 0xFF would mean "MB" (micro:bit?),
                 // and 0x03 would mean "Hummingbird".
                 // The last byte, 0x22, means version 2 micro:bit.
                 robot.version = (value[3] == 0x22 ? 2 : 1);
-                try {
-                    robot.send(robot.version == 2 ? POLL_START_V2 : POLL_START_V1);
-                    robot.status = CONNECTED;
-                    if (robot.connectionTimer != null) {
-                        robot.connectionTimer.cancel(false);
-                        robot.connectionTimer = null;
-                    }
-                    robotManager.receiveConnectionEvent(robot.name, (robot.version == 2), robot.rssi);
-                } catch (Exception e) {
-                    LOG.error("can't start polling for " + robot.name);
-                }
+                byte[] pollStart = (robot.version == 2 ? CommandCodec.POLL_START_V2 : CommandCodec.POLL_START_V1);
+                int attempt = robot.attempt;
+                Tx tx = new Tx(robot);
+                callAsync(robot, "polling started", () -> {
+                    tx.send(pollStart);
+                    return null;
+                }, (r, e) -> pollingStarted(robot, attempt, e));
+            } else if (robot.status == CONNECTING_PROBE) {
+                // Sensor data that beat the reply to the polling request, drop it
             } else if (value.length > 10 && robot.status == CONNECTED) {
                 // Sensor data and rssi
                 // Note: robot.rssi will be stale here, because the underlying
@@ -697,11 +936,88 @@ public class LinuxBluezBLE implements RobotCommunicator {
             }
         }
 
+        private void pollingStarted(BLERobotDevice robot, int attempt, Exception failure) {
+            if (robot.attempt != attempt || robot.status != CONNECTING_PROBE)
+                return;
+            if (failure != null) {
+                LOG.error("can't start polling for " + robot.name);
+                // let connection timeout handle the cleanup
+                return;
+            }
+            robot.status = CONNECTED;
+            if (robot.connectionTimer != null) {
+                robot.connectionTimer.cancel(false);
+                robot.connectionTimer = null;
+            }
+            robotManager.receiveConnectionEvent(robot.name, (robot.version == 2), robot.rssi);
+        }
+
+        // Note: this gets called directly from BLE async signal handler
+        private void async_propertiesChanged(String path, Map<String, Variant<?>> props) {
+            if (props.containsKey("Value")) {
+                offerData(new Work("dbus data received", path, () -> bluetoothValueChanged(path, props)));
+                return;
+            }
+            AtomicBoolean added = new AtomicBoolean(false);
+            pendingProps.compute(path, (p, pending) -> {
+                if (pending == null) {
+                    added.set(true);
+                    return new HashMap<>(props);
+                }
+                pending.putAll(props); // later values replace earlier ones
+                return pending;
+            });
+            if (added.get()) {
+                workQueue.offer(new Work("dbus properties changed", path, () -> {
+                    Map<String, Variant<?>> latest = pendingProps.remove(path);
+                    if (latest != null)
+                        bluetoothValueChanged(path, latest);
+                }));
+            }
+        }
+
+        // Note: this gets called from BLE async signal handler and socket reader threads
+        private void offerData(Work work) {
+            dataQueue.offer(work);
+            if (dataDrainQueued.compareAndSet(false, true))
+                workQueue.offerFirst(newDataDrain());
+        }
+
+        private Work newDataDrain() {
+            return new Work("drain data", "", (drain) -> drainData());
+        }
+
+        private void drainData() throws IOException, DBusException, InterruptedException {
+            dataDrainQueued.set(false);
+            Work work;
+            for (int i = 0; i < MAX_DATA_BATCH && (work = dataQueue.poll()) != null; i++)
+                work.task.run(work);
+            // Still backed up, so come back for the rest after what's already waiting
+            if (!dataQueue.isEmpty() && dataDrainQueued.compareAndSet(false, true))
+                workQueue.offer(newDataDrain());
+        }
+
+        // Drops work still queued for robot, from every queue
+        private void dropQueuedWork(BLERobotDevice robot) {
+            workQueue.removeIf((work) -> robot.owns(work));
+            dataQueue.removeIf((work) -> robot.owns(work));
+            // Its merged properties task may just have been removed above
+            pendingProps.keySet().removeIf((p) -> p.equals(robot.path) || p.startsWith(robot.path + "/"));
+            // Likewise its drain request, so clear the outbound queue only now.
+            // Cleared any earlier, a send in between could queue a drain that
+            // is then removed, leaving the queue marked as draining for good.
+            OutboundQueue queue = outboundQueues.get(robot.name);
+            if (queue != null)
+                queue.clear();
+        }
+
         // Note: this gets called directly from BLE async signal handler
         private void async_deviceRemoved(String path, List<String> ifaces) {
             if (!ifaces.contains("org.bluez.Device1"))
                 return;
             workQueue.removeIf((work) -> work.path.equals(path) || work.path.startsWith(path + "/"));
+            dataQueue.removeIf((work) -> work.path.equals(path) || work.path.startsWith(path + "/"));
+            pendingProps.keySet().removeIf((p) -> p.equals(path) || p.startsWith(path + "/"));
             workQueue.offerFirst(new Work("dbus device removal", path, 
                         () -> {
                             BLERobotDevice robot = robotsByPath.get(path);
@@ -789,28 +1105,49 @@ public class LinuxBluezBLE implements RobotCommunicator {
                     return;
                 }
                 robot.status = CONNECTING_BEGIN;
-                device.Connect();
+                // Set now, so a disconnect while Connect is still running
+                // queues a Disconnect behind it
                 robot.device = device;
-                // query dbus to get rxChar and txChar, if already present,
+                int attempt = ++robot.attempt;
+                // Connect blocks until the link is up, so it runs off the worker.
+                // Then query dbus to get rxChar and txChar, if already present,
                 // otherwise we get them from InterfacesAdded signals
-                for (var entry : manager.GetManagedObjects().entrySet()) {
-                    String path = entry.getKey().getPath();
-                    if (!path.startsWith(robot.path + "/"))
-                        continue;
-                    LOG.info("enumerated relevant item: {}", path);
-                    var ifaces = entry.getValue();
-                    if (ifaces.containsKey("org.bluez.GattCharacteristic1")) {
-                        Map<String, Variant<?>> props = ifaces.get("org.bluez.GattCharacteristic1");
-                        String uuid = (String) props.get("UUID").getValue();
-                        LOG.debug("item is a Gatt characteristic, UUID={}", uuid);
-                        updateGatt(path, robot, uuid);
-                    }
-                }
+                callAsync(robot, "connection finished", () -> {
+                    device.Connect();
+                    return manager.GetManagedObjects();
+                }, (objects, e) -> connectionFinished(robot, attempt, objects, e));
             } catch (Exception e) {
                 LOG.error("can't connect to " + robot.path + ": " + e.getMessage());
                 disconnect(robot, UNAVAILABLE);
+            }
+        }
+
+        private void connectionFinished(BLERobotDevice robot, int attempt,
+                                        Map<DBusPath, Map<String, Map<String, Variant<?>>>> objects, Exception failure) {
+            // GATT signals may have moved the robot past CONNECTING_BEGIN already
+            if (robot.attempt != attempt ||
+                    (robot.status != CONNECTING_BEGIN && robot.status != CONNECTING_PROBE && robot.status != CONNECTED)) {
+                LOG.debug("ignoring stale connection reply for {}", robot.name);
+                return;
+            }
+            if (failure != null) {
+                LOG.error("can't connect to " + robot.path + ": " + failure.getMessage());
+                disconnect(robot, UNAVAILABLE);
                 return;
             }
+            for (var entry : objects.entrySet()) {
+                String path = entry.getKey().getPath();
+                if (!path.startsWith(robot.path + "/"))
+                    continue;
+                LOG.info("enumerated relevant item: {}", path);
+                var ifaces = entry.getValue();
+                if (ifaces.containsKey("org.bluez.GattCharacteristic1")) {
+                    Map<String, Variant<?>> props = ifaces.get("org.bluez.GattCharacteristic1");
+                    String uuid = (String) props.get("UUID").getValue();
+                    LOG.debug("item is a Gatt characteristic, UUID={}", uuid);
+                    updateGatt(path, robot, uuid);
+                }
+            }
             // set a timer in case connection drops out
             if (robot.status != CONNECTED && robot.status != DISCONNECTING) {
                 robot.connectionTimer = scheduler.schedule(() -> {
@@ -846,16 +1183,49 @@ public class LinuxBluezBLE implements RobotCommunicator {
                 return;
             }
             robot.status = DISCONNECTING;
-            if (prevStatus == CONNECTED) {
-                robot.checkedSend(POLL_STOP);
-            }
-            if (prevStatus == CONNECTED || prevStatus == CONNECTING_PROBE) {
-                try {
-                    robot.rxChar.StopNotify();
-                } catch (Exception e) {
-                    LOG.error("can't unsubscribe from " + robot.rxCharPath);
+            // The D-Bus side of the disconnect goes out on the robot's lane,
+            // after whatever is already queued there, and with the
+            // characteristics as they are now, since they are cleared below.
+            String name = robot.name, path = robot.path, rxPath = robot.rxCharPath;
+            GattCharacteristic1 txChar = robot.txChar, rxChar = robot.rxChar;
+            GattSocket txSocket = robot.txSocket, rxSocket = robot.rxSocket;
+            Device1 device = robot.device;
+            robot.txSocket = null;
+            robot.rxSocket = null;
+            callAsync(robot, "disconnected", () -> {
+                if (prevStatus == CONNECTED) {
+                    try {
+                        if (txSocket != null)
+                            txSocket.write(CommandCodec.POLL_STOP);
+                        else
+                            txChar.WriteValue(CommandCodec.POLL_STOP, Map.of());
+                    } catch (Exception e) {
+                        LOG.error("error writing to " + path + ": cmd=" + Utilities.bytesToString(CommandCodec.POLL_STOP));
+                    }
                 }
-            }
+                if (txSocket != null)
+                    txSocket.close();
+                if (rxSocket != null) {
+                    // Closing the socket is how an acquired notify is stopped
+                    rxSocket.close();
+                } else if (prevStatus == CONNECTED || prevStatus == CONNECTING_PROBE) {
+                    try {
+                        rxChar.StopNotify();
+                    } catch (Exception e) {
+                        LOG.error("can't unsubscribe from " + rxPath);
+                    }
+                }
+                if (device != null) {
+                    try {
+                        device.Disconnect();
+                    }
+                    catch (Exception e) {
+                        LOG.error("can't disconect from " + path);
+                    }
+                }
+                LOG.debug("D-Bus disconnect from {} done", name);
+                return null;
+            }, null);
             if (robot.connectionTimer != null) {
                 robot.connectionTimer.cancel(false);
                 robot.connectionTimer = null;
@@ -870,16 +1240,8 @@ public class LinuxBluezBLE implements RobotCommunicator {
                 robot.rxChar = null;
             }
             robot.version = 0; // unknown
-            if (robot.device != null) {
-                try {
-                    robot.device.Disconnect();
-                }
-                catch (Exception e) {
-                    LOG.error("can't disconect from " + robot.path);
-                }
-                robot.device = null;
-            }
-            workQueue.removeIf((work) -> robot.owns(work));
+            robot.device = null;
+            dropQueuedWork(robot);
             robot.status = nextStatus;
             if (robot.status == AVAILABLE) {
                 // This is the user-initiated case, so permanent=true, that way the manager won't
@@ -968,22 +1330,38 @@ public class LinuxBluezBLE implements RobotCommunicator {
                 disconnect(robot, DEAD);
         }
 
-        public Work newSendRequest(String robotName, byte[] cmd) {
-            return new Work("user command", robotName, () -> send(robotName, cmd));
+        public Work newDrainRequest(String robotName) {
+            return new Work("user commands", robotName, () -> drain(robotName));
         }
 
-        private void send(String robotName, byte[] command) {
+        // The writes happen on the robot's lane, taking each frame from the
+        // queue only when the previous write is done, so frames that are
+        // superseded meanwhile are never written. Each written runs once its
+        // write is done.
+        private void drain(String robotName) {
             LOG.debug("sending to " + robotName);
+            OutboundQueue queue = outboundQueue(robotName);
             BLERobotDevice robot = robotsByName.get(robotName);
             if (robot == null) {
                 LOG.error("can't find info for " + robotName);
+                queue.clear();
                 return;
             }
             if (robot.status != CONNECTED) {
                 LOG.error("can't send user command, robot is not yet connected");
+                queue.clear();
                 return;
             }
-            robot.checkedSend(command);
+            Tx tx = new Tx(robot);
+            callAsync(robot, "commands written", () -> {
+                OutboundQueue.Entry entry;
+                while ((entry = queue.poll()) != null) {
+                    tx.checkedSend(entry.frame);
+                    if (entry.written != null)
+                        entry.written.run();
+                }
+                return null;
+            }, null);
         }
 
         private BLERobotDevice robotByService(String service) {
@@ -1052,6 +1430,11 @@ public class LinuxBluezBLE implements RobotCommunicator {
         return false;
     }
 
+    @FunctionalInterface
+    private interface DBusCall<T> {
+        T call() throws Exception;
+    }
+
     @FunctionalInterface
     private interface WorkTask {
         void run(Work work) throws IOException, DBusException, InterruptedException;
@@ -1066,22 +1449,6 @@ public class LinuxBluezBLE implements RobotCommunicator {
         public Work(String d, String p, WorkTask t) { desc = d; path = p; task = t; }
     }
 
-    private static byte[] toByteArray(List<Byte> list) {
-        byte[] array = new byte[list.size()];
-        for (int i = 0; i < list.size(); i++) {
-            array[i] = list.get(i);
-        }
-        return array;
-    }
-
-    public static List<Byte> toByteList(byte[] array) {
-        List<Byte> list = new ArrayList<>(array.length);
-        for (byte b : array) {
-            list.add(b);
-        }
-        return list;
-    }
-
     private static <T> T getProp(Map<String, Variant<?>> props, String key, Class<T> type) {
         Variant<?> val = props.get(key);
         if (val == null)
@@ -1117,9 +1484,23 @@ public class LinuxBluezBLE implements RobotCommunicator {
 
     @DBusInterfaceName("org.bluez.GattCharacteristic1")
     public interface GattCharacteristic1 extends DBusInterface {
-        void WriteValue(List<Byte> value, Map<String, Variant<?>> options);
+        void WriteValue(byte[] value, Map<String, Variant<?>> options); // value is "ay"
         void StartNotify();
         void StopNotify();
+        AcquiredSocket AcquireWrite(Map<String, Variant<?>> options);
+        AcquiredSocket AcquireNotify(Map<String, Variant<?>> options);
+    }
+
+    // Reply to AcquireWrite and AcquireNotify, "(hq)"
+    public static final class AcquiredSocket extends Tuple {
+        @Position(0)
+        public final FileDescriptor fd;
+        @Position(1)
+        public final UInt16 mtu;
+        public AcquiredSocket(FileDescriptor fd, UInt16 mtu) {
+            this.fd = fd;
+            this.mtu = mtu;
+        }
     }
 
 }
@@ -0,0 +1,63 @@
+package com.birdbraintechnologies.bluebirdconnector;
+
+// A note sequence for the buzzer. Each entry is a MIDI note (0 for a rest),
+// how long to sound it and an optional silence after it, all in ms. Robot
+// plays a melody from RobotScheduler against a fixed start time, so one late
+// note does not push back the ones after it.
+public class Melody {
+
+    public static final int MAX_NOTES = 256;
+
+    private final int[] notes;
+    private final int[] durations;
+    private final int[] rests;
+
+    private Melody(int[] notes, int[] durations, int[] rests) {
+        this.notes = notes;
+        this.durations = durations;
+        this.rests = rests;
+    }
+
+    // params[first..] are "note,ms" or "note,ms,rest", as in
+    // /hummingbird/out/playMelody/<dev>/60,500/62,500,100/64,1000
+    public static Melody parse(String[] params, int first) {
+        int count = params.length - first;
+        if (count <= 0 || count > MAX_NOTES) {
+            throw new IllegalArgumentException("A melody needs 1 to " + MAX_NOTES + " notes, got " + count);
+        }
+        int[] notes = new int[count];
+        int[] durations = new int[count];
+        int[] rests = new int[count];
+        for (int i = 0; i < count; i++) {
+            String[] fields = params[first + i].split(",");
+            if (fields.length < 2 || fields.length > 3) {
+                throw new IllegalArgumentException("Bad melody note: " + params[first + i]);
+            }
+            notes[i] = Integer.parseInt(fields[0]);
+            durations[i] = Integer.parseInt(fields[1]);
+            rests[i] = (fields.length == 3) ? Integer.parseInt(fields[2]) : 0;
+            // The buzzer takes a 16 bit duration
+            if (notes[i] < 0 || notes[i] > 127 || durations[i] < 0 || durations[i] > 0xFFFF || rests[i] < 0) {
+                throw new IllegalArgumentException("Melody note out of range: " + params[first + i]);
+            }
+        }
+        return new Melody(notes, durations, rests);
+    }
+
+    public int size() {
+        return notes.length;
+    }
+
+    public int getNote(int i) {
+        return notes[i];
+    }
+
+    public int getDuration(int i) {
+        return durations[i];
+    }
+
+    // Time from the start of note i to the start of the next one
+    public long getSpanMs(int i) {
+        return (long) durations[i] + rests[i];
+    }
+}
@@ -0,0 +1,132 @@
+package com.birdbraintechnologies.bluebirdconnector;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+// Per-Finch queue of wheel commands. Each motion is held back until the
+// robot reports (via the move-finished flag in byte 4 of the notification
+// frame) that the previous one is done, so a client can send a whole sequence
+// of moves without polling finchIsMoving in between.
+//
+// Every enqueued motion gets a future that completes with true when the
+// robot finishes it, or false if the queue is cleared first.
+public class MotionQueue {
+    static final Log LOG = Log.getLogger(MotionQueue.class);
+
+    // If the robot never reports that it started moving (a very short move
+    // can finish between two frames), give up waiting after this long.
+    private static final long START_TIMEOUT_NS = TimeUnit.MILLISECONDS.toNanos(500);
+
+    private static class Entry {
+        final FinchMotion motion;
+        final CompletableFuture<Boolean> done = new CompletableFuture<>();
+        Entry(FinchMotion motion) { this.motion = motion; }
+    }
+
+    private final Robot robot;
+    private final Deque<Entry> pending = new ArrayDeque<>();
+    private volatile Entry current = null;
+    private CompletableFuture<Boolean> last = CompletableFuture.completedFuture(true);
+    private long dispatchedAt;
+    private boolean sawMoving;
+
+    public MotionQueue(Robot robot) {
+        this.robot = robot;
+    }
+
+    public synchronized CompletableFuture<Boolean> enqueue(FinchMotion motion) {
+        robot.demand.touch(); // completions come from the sensor stream
+        Entry entry = new Entry(motion);
+        last = entry.done;
+        if (current == null) {
+            dispatch(entry);
+        } else {
+            pending.addLast(entry);
+        }
+        return entry.done;
+    }
+
+    // Cancels the running motion (as far as the queue is concerned) and
+    // everything behind it. The caller is responsible for stopping the wheels.
+    public synchronized void clear() {
+        if (current == null) {
+            return;
+        }
+        LOG.debug("{}: clearing motion queue ({} pending)", robot.name, pending.size());
+        current.done.complete(false);
+        current = null;
+        for (Entry e : pending) {
+            e.done.complete(false);
+        }
+        pending.clear();
+    }
+
+    public boolean isIdle() {
+        return current == null;
+    }
+
+    public synchronized int size() {
+        return pending.size() + (current == null ? 0 : 1);
+    }
+
+    // Waits for everything enqueued so far. Returns false on timeout or if the
+    // queue was cleared.
+    public boolean awaitIdle(long timeoutMs) throws InterruptedException {
+        CompletableFuture<Boolean> target;
+        synchronized (this) {
+            target = last;
+        }
+        try {
+            return target.get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException | TimeoutException e) {
+            return false;
+        }
+    }
+
+    // Called from Robot.receiveNotification for every frame.
+    public void update(byte[] data) {
+        if (current == null) {
+            return;
+        }
+        boolean moving = Sensor.byteAt(data, 4) < 0;
+        synchronized (this) {
+            if (current == null) {
+                return;
+            }
+            if (moving) {
+                sawMoving = true;
+            } else if (sawMoving || System.nanoTime() - dispatchedAt > START_TIMEOUT_NS) {
+                Entry finished = current;
+                current = null;
+                dispatchNext();
+                finished.done.complete(true);
+            }
+        }
+    }
+
+    private void dispatchNext() {
+        Entry next = pending.pollFirst();
+        if (next != null) {
+            dispatch(next);
+        }
+    }
+
+    private void dispatch(Entry entry) {
+        FinchMotion m = entry.motion;
+        LOG.debug("{}: dispatching queued motion {} {} {} {}", robot.name, m.speedL, m.ticksL, m.speedR, m.ticksR);
+        robot.updateMotors(m.speedL, m.ticksL, m.speedR, m.ticksR);
+        if (m.isContinuous()) {
+            // Nothing to wait for, the wheels just change speed
+            entry.done.complete(true);
+            dispatchNext();
+            return;
+        }
+        current = entry;
+        dispatchedAt = System.nanoTime();
+        sawMoving = false;
+    }
+}
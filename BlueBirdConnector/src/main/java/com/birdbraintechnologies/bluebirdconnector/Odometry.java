@@ -0,0 +1,135 @@
+package com.birdbraintechnologies.bluebirdconnector;
+
+import static com.birdbraintechnologies.bluebirdconnector.RobotManager.*;
+
+// Dead-reckoning pose for the Finch. The left (bytes 7-9) and right (bytes
+// 10-12) encoder counts are integrated on every notification into a position
+// in cm and a heading in degrees, measured from where the robot was when it
+// connected or when the pose was last reset. Heading is counterclockwise
+// positive, so the robot starts facing along +x.
+public class Odometry {
+    static final Log LOG = Log.getLogger(Odometry.class);
+
+    private static final int LEFT_INDEX = 7;
+    private static final int RIGHT_INDEX = 10;
+    private static final int ENCODER_RANGE = 1 << 24;
+
+    // Anything faster than this between two frames is not real motion (an
+    // encoder reset, for example), so the pose is rebaselined instead.
+    private static final double MAX_TICKS_PER_SECOND = 5000;
+    private static final int MIN_JUMP_TICKS = 200;
+    // Weight of the newest sample in the velocity estimate
+    private static final double VELOCITY_SMOOTHING = 0.3;
+
+    private boolean haveBaseline = false;
+    private int lastLeft;
+    private int lastRight;
+    private long lastTime;
+
+    private double x;
+    private double y;
+    private double heading; // radians
+    private double linearVelocity; // cm/s
+    private double angularVelocity; // rad/s
+
+    // Called from Robot.receiveNotification for every frame.
+    public synchronized void update(byte[] data) {
+        if (data.length < RIGHT_INDEX + 3) {
+            return;
+        }
+        int left = readEncoder(data, LEFT_INDEX);
+        int right = readEncoder(data, RIGHT_INDEX);
+        long now = System.nanoTime();
+
+        if (!haveBaseline) {
+            rebaseline(left, right, now);
+            return;
+        }
+
+        int dLeft = wrapDelta(left - lastLeft);
+        int dRight = wrapDelta(right - lastRight);
+        double dt = (now - lastTime) / 1e9;
+        if (dLeft == 0 && dRight == 0) {
+            // Wheels are still. Let the velocity decay instead of holding
+            // whatever it was on the last frame that moved.
+            if (dt > 0) {
+                linearVelocity *= (1 - VELOCITY_SMOOTHING);
+                angularVelocity *= (1 - VELOCITY_SMOOTHING);
+                if (Math.abs(linearVelocity) < 0.01) { linearVelocity = 0; }
+                if (Math.abs(angularVelocity) < 0.0001) { angularVelocity = 0; }
+            }
+            lastTime = now;
+            return;
+        }
+
+        double maxTicks = Math.max(MIN_JUMP_TICKS, MAX_TICKS_PER_SECOND * dt);
+        if (Math.abs(dLeft) > maxTicks || Math.abs(dRight) > maxTicks) {
+            LOG.debug("Encoder jump of {}, {} ticks; rebaselining odometry", dLeft, dRight);
+            rebaseline(left, right, now);
+            return;
+        }
+
+        double dl = dLeft / FINCH_TICKS_PER_CM;
+        double dr = dRight / FINCH_TICKS_PER_CM;
+        double distance = (dl + dr) / 2;
+        double dTheta = (dr - dl) / FINCH_WHEELBASE_CM;
+        // Midpoint integration: travel along the average heading of the step
+        double mid = heading + dTheta / 2;
+        x += distance * Math.cos(mid);
+        y += distance * Math.sin(mid);
+        heading = normalize(heading + dTheta);
+
+        if (dt > 0) {
+            linearVelocity += VELOCITY_SMOOTHING * (distance / dt - linearVelocity);
+            angularVelocity += VELOCITY_SMOOTHING * (dTheta / dt - angularVelocity);
+        }
+
+        lastLeft = left;
+        lastRight = right;
+        lastTime = now;
+    }
+
+    public synchronized void reset() {
+        x = 0;
+        y = 0;
+        heading = 0;
+        linearVelocity = 0;
+        angularVelocity = 0;
+        // Keep the encoder baseline, so only motion from here on counts
+    }
+
+    public synchronized double getX() { return x; }
+    public synchronized double getY() { return y; }
+    public synchronized double getHeadingDegrees() { return Math.toDegrees(heading); }
+    public synchronized double getLinearVelocity() { return linearVelocity; }
+    public synchronized double getAngularVelocityDegrees() { return Math.toDegrees(angularVelocity); }
+
+    private void rebaseline(int left, int right, long now) {
+        haveBaseline = true;
+        lastLeft = left;
+        lastRight = right;
+        lastTime = now;
+        linearVelocity = 0;
+        angularVelocity = 0;
+    }
+
+    // 24-bit big endian count, as in the Encoder request in RobotServlet
+    private static int readEncoder(byte[] data, int index) {
+        return (Sensor.uint(data, index) << 16) + (Sensor.uint(data, index + 1) << 8) + Sensor.uint(data, index + 2);
+    }
+
+    // The counts wrap at 24 bits, so take the shortest way around
+    private static int wrapDelta(int delta) {
+        delta = delta & (ENCODER_RANGE - 1);
+        if (delta >= ENCODER_RANGE / 2) {
+            delta -= ENCODER_RANGE;
+        }
+        return delta;
+    }
+
+    private static double normalize(double angle) {
+        while (angle > Math.PI) { angle -= 2 * Math.PI; }
+        while (angle <= -Math.PI) { angle += 2 * Math.PI; }
+        return angle;
+    }
+}
@@ -0,0 +1,126 @@
+package com.birdbraintechnologies.bluebirdconnector;
+
+// Running orientation estimate for one robot. The robots have no gyroscope,
+// so instead of integrating rates this low-pass filters the gravity and
+// magnetic field vectors on every notification. The filtered vectors give
+// pitch, roll and a tilt-compensated compass heading without the jitter of
+// a single raw frame, and a query is just a few trig calls on state that is
+// already there.
+//
+// Vectors are kept in the micro:bit's frame, in raw units: accelerometer
+// counts (127 = 2g) and magnetometer values as rawToCompass used them. The
+// Finch's micro:bit is mounted at 40 degrees, so Finch-frame values are
+// rotated on the way out.
+public class OrientationFilter {
+
+    // Weight of each new frame. At the usual notification rate this settles
+    // in well under half a second.
+    private static final double ALPHA = 0.3;
+    private static final double FINCH_TILT = Math.toRadians(40);
+    private static final double COS_TILT = Math.cos(FINCH_TILT);
+    private static final double SIN_TILT = Math.sin(FINCH_TILT);
+
+    private final boolean finch;
+    private boolean primed = false;
+    private double ax, ay, az;
+    private double mx, my, mz;
+
+    public OrientationFilter(boolean isFinch) {
+        finch = isFinch;
+    }
+
+    // Called from Robot.receiveNotification for every frame, so that the
+    // estimate keeps converging while the robot sits still.
+    public synchronized void update(byte[] data) {
+        double nax, nay, naz, nmx, nmy, nmz;
+        if (finch) {
+            nax = Sensor.byteAt(data, 13);
+            nay = Sensor.byteAt(data, 14);
+            naz = Sensor.byteAt(data, 15);
+            //the finch returns values already converted to uT.
+            nmx = Sensor.byteAt(data, 17) * 10;
+            nmy = Sensor.byteAt(data, 18) * 10;
+            nmz = Sensor.byteAt(data, 19) * 10;
+        } else {
+            nax = Sensor.byteAt(data, 4);
+            nay = Sensor.byteAt(data, 5);
+            naz = Sensor.byteAt(data, 6);
+            nmx = (short) ((Sensor.byteAt(data, 8) << 8) | Sensor.uint(data, 9));
+            nmy = (short) ((Sensor.byteAt(data, 10) << 8) | Sensor.uint(data, 11));
+            nmz = (short) ((Sensor.byteAt(data, 12) << 8) | Sensor.uint(data, 13));
+        }
+        if (!primed) {
+            ax = nax; ay = nay; az = naz;
+            mx = nmx; my = nmy; mz = nmz;
+            primed = true;
+            return;
+        }
+        ax += ALPHA * (nax - ax);
+        ay += ALPHA * (nay - ay);
+        az += ALPHA * (naz - az);
+        mx += ALPHA * (nmx - mx);
+        my += ALPHA * (nmy - my);
+        mz += ALPHA * (nmz - mz);
+    }
+
+    // Filtered acceleration along the micro:bit's X, Y or Z axis (0, 1, 2), in g.
+    public synchronized double getGravity(int axis) {
+        return toGravity(axis == 0 ? ax : axis == 1 ? ay : az);
+    }
+
+    // Same, in the Finch's frame of reference.
+    public synchronized double getFinchGravity(int axis) {
+        switch (axis) {
+            case 0:
+                return toGravity(ax);
+            case 1:
+                return toGravity(ay * COS_TILT - az * SIN_TILT);
+            default:
+                return toGravity(ay * SIN_TILT + az * COS_TILT);
+        }
+    }
+
+    // Pitch and roll in degrees, in the robot's own frame of reference.
+    public synchronized double getPitch() {
+        double y = finch ? ay * COS_TILT - az * SIN_TILT : ay;
+        double z = finch ? ay * SIN_TILT + az * COS_TILT : az;
+        return Math.toDegrees(Math.atan2(-ax, Math.sqrt(y * y + z * z)));
+    }
+
+    public synchronized double getRoll() {
+        double y = finch ? ay * COS_TILT - az * SIN_TILT : ay;
+        double z = finch ? ay * SIN_TILT + az * COS_TILT : az;
+        return Math.toDegrees(Math.atan2(y, z));
+    }
+
+    // Tilt-compensated heading in degrees [0, 360), as the Compass block has
+    // always computed it. With finchReference the vectors are first rotated
+    // into the Finch's frame (the caller still turns the result around so
+    // that the beak points north at 0).
+    public synchronized double getHeading(boolean finchReference) {
+        double gx = ax, gy = ay, gz = az;
+        double bx = mx, by = my, bz = mz;
+        if (finchReference) {
+            gy = ay * COS_TILT - az * SIN_TILT;
+            gz = ay * SIN_TILT + az * COS_TILT;
+            by = my * COS_TILT + mz * SIN_TILT;
+            bz = mz * COS_TILT - my * SIN_TILT;
+        }
+
+        double phi = Math.atan(-gy / gz);
+        double theta = Math.atan(gx / (gy * Math.sin(phi) + gz * Math.cos(phi)));
+
+        double xp = bx;
+        double yp = by * Math.cos(phi) - bz * Math.sin(phi);
+        double zp = by * Math.sin(phi) + bz * Math.cos(phi);
+
+        double xpp = xp * Math.cos(theta) + zp * Math.sin(theta);
+        double ypp = yp;
+
+        return 180.0 + Math.toDegrees(Math.atan2(xpp, ypp));
+    }
+
+    private static double toGravity(double raw) {
+        return raw * (2.0 / 127.0);
+    }
+}
@@ -0,0 +1,118 @@
+package com.birdbraintechnologies.bluebirdconnector;
+
+import com.google.gson.JsonObject;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+// Frames waiting to be written to one robot by a transport that can fall
+// behind the SetAllThread. The queue is bounded, and a frame that carries
+// whole state (see CommandCodec.supersedeKey) replaces the unsent frame of
+// the same kind instead of queueing behind it, so a slow link delivers the
+// latest state rather than working through stale frames. Other frames are
+// kept in order. With at most one frame of each whole-state kind waiting, a
+// full queue means the link has stopped, and new frames are dropped.
+public class OutboundQueue {
+    static final Log LOG = Log.getLogger(OutboundQueue.class);
+
+    public static final int DEFAULT_CAPACITY = 32;
+
+    public static final class Entry {
+        public final byte[] frame;
+        public final Runnable written; // or null
+        final int key;
+
+        Entry(byte[] frame, Runnable written) {
+            this.frame = frame;
+            this.written = written;
+            this.key = CommandCodec.supersedeKey(frame);
+        }
+    }
+
+    private final String name;
+    private final int capacity;
+
+    // All guarded by this
+    private final ArrayDeque<Entry> entries = new ArrayDeque<>();
+    private boolean draining = false;
+    private int maxDepth = 0;
+    private long queued = 0;
+    private long superseded = 0;
+    private long dropped = 0;
+
+    public OutboundQueue(String name, int capacity) {
+        this.name = name;
+        this.capacity = capacity;
+    }
+
+    // Queues a frame. Returns true if the caller should start draining the
+    // queue, false if a drain is already under way.
+    public synchronized boolean offer(byte[] frame, Runnable written) {
+        Entry entry = new Entry(frame, written);
+        if (entry.key != 0) {
+            for (Iterator<Entry> it = entries.iterator(); it.hasNext(); ) {
+                if (it.next().key == entry.key) {
+                    it.remove();
+                    superseded++;
+                    break; // there is never more than one per key
+                }
+            }
+        }
+        if (entries.size() >= capacity) {
+            dropped++;
+            LOG.warn("Outbound queue for {} is full, dropping {}", name, Utilities.bytesToString(frame));
+            return startDrain();
+        }
+        entries.addLast(entry);
+        queued++;
+        maxDepth = Math.max(maxDepth, entries.size());
+        return startDrain();
+    }
+
+    // For a stop: everything still queued is stale, so the frame replaces it
+    // all. The caller always starts a drain, ahead of any already waiting.
+    public synchronized void replaceAll(byte[] frame, Runnable written) {
+        superseded += entries.size();
+        entries.clear();
+        entries.addLast(new Entry(frame, written));
+        queued++;
+        maxDepth = Math.max(maxDepth, 1);
+        draining = true;
+    }
+
+    // Next frame to write, or null once the queue is empty, which also ends
+    // the drain.
+    public synchronized Entry poll() {
+        Entry entry = entries.pollFirst();
+        if (entry == null) {
+            draining = false;
+        }
+        return entry;
+    }
+
+    // Drops everything, for a disconnect. A drain still running stops at its next poll.
+    public synchronized void clear() {
+        dropped += entries.size();
+        entries.clear();
+        draining = false;
+    }
+
+    public synchronized JsonObject toJson() {
+        JsonObject json = new JsonObject();
+        json.addProperty("depth", entries.size());
+        json.addProperty("maxDepth", maxDepth);
+        json.addProperty("capacity", capacity);
+        json.addProperty("queued", queued);
+        json.addProperty("superseded", superseded);
+        json.addProperty("dropped", dropped);
+        return json;
+    }
+
+    private boolean startDrain() {
+        if (draining) {
+            return false;
+        }
+        draining = true;
+        return true;
+    }
+}
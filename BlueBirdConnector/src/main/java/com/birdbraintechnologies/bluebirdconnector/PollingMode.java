@@ -0,0 +1,41 @@
+package com.birdbraintechnologies.bluebirdconnector;
+
+// How a robot trades sensor latency for battery and radio time. The mode
+// sets how long the sensor stream may sit unread before it is stopped (see
+// SensorDemand), and the BLE connection parameters a transport asks for when
+// it can change them. Intervals are in the BLE unit of 1.25 ms, supervision
+// timeouts in 10 ms.
+public enum PollingMode {
+    // The connection as DongleBLE has always made it, with a lenient idle
+    // timeout. A supervision timeout of 0 leaves it to the robot.
+    STANDARD("standard", 35, 40, 100, 0, 60000),
+    // Shortest interval the robots accept, for control loops and games
+    LOW_LATENCY("lowLatency", 6, 12, 0, 100, 60000),
+    // Long interval, and the robot may skip a few connection events
+    LOW_POWER("lowPower", 40, 80, 4, 600, 10000);
+
+    public final String label;
+    public final int intervalMin;
+    public final int intervalMax;
+    public final int latency;
+    public final int supervisionTimeout;
+    public final long idleTimeoutMs;
+
+    PollingMode(String label, int intervalMin, int intervalMax, int latency, int supervisionTimeout, long idleTimeoutMs) {
+        this.label = label;
+        this.intervalMin = intervalMin;
+        this.intervalMax = intervalMax;
+        this.latency = latency;
+        this.supervisionTimeout = supervisionTimeout;
+        this.idleTimeoutMs = idleTimeoutMs;
+    }
+
+    public static PollingMode fromLabel(String label) {
+        for (PollingMode mode : values()) {
+            if (mode.label.equalsIgnoreCase(label)) {
+                return mode;
+            }
+        }
+        return null;
+    }
+}
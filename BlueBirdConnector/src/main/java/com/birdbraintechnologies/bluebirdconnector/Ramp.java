@@ -0,0 +1,116 @@
+package com.birdbraintechnologies.bluebirdconnector;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+// Moves one or more outputs (both Finch wheels, or a Hummingbird servo)
+// from their current values to a target over a set time, following a
+// curve. The values are written through the normal Robot channels once
+// per SetAllThread interval, which is as often as they can reach the
+// robot; each step is computed from the elapsed time, so a late step does
+// not stretch the ramp.
+public class Ramp {
+    static final Log LOG = Log.getLogger(Ramp.class);
+
+    public enum Curve {
+        LINEAR("linear"), EASE_IN("easeIn"), EASE_OUT("easeOut"), EASE_IN_OUT("easeInOut");
+
+        public final String label;
+
+        Curve(String label) {
+            this.label = label;
+        }
+
+        public static Curve fromLabel(String label) {
+            for (Curve curve : values()) {
+                if (curve.label.equalsIgnoreCase(label)) {
+                    return curve;
+                }
+            }
+            return null;
+        }
+
+        // Progress in [0, 1] for time t in [0, 1]
+        double apply(double t) {
+            switch (this) {
+                case EASE_IN:
+                    return t * t;
+                case EASE_OUT:
+                    return t * (2 - t);
+                case EASE_IN_OUT:
+                    return t * t * (3 - 2 * t);
+                default:
+                    return t;
+            }
+        }
+    }
+
+    private final double[] from;
+    private final double[] to;
+    private final double[] values;
+    private final long durationNs;
+    private final Curve curve;
+    private final Consumer<double[]> writer;
+
+    // All guarded by this
+    private long startNs;
+    private boolean done = false;
+    private ScheduledFuture<?> task;
+    private Runnable onFinish;
+
+    public Ramp(double[] from, double[] to, long durationMs, Curve curve, Consumer<double[]> writer) {
+        this.from = from;
+        this.to = to;
+        this.values = new double[to.length];
+        this.durationNs = TimeUnit.MILLISECONDS.toNanos(Math.max(0, durationMs));
+        this.curve = curve;
+        this.writer = writer;
+    }
+
+    // onFinish runs once the ramp ends, whether it ran out or was cancelled.
+    // It runs under this ramp's lock, so it must not take other locks.
+    public synchronized void start(Runnable onFinish) {
+        this.onFinish = onFinish;
+        startNs = System.nanoTime();
+        task = RobotScheduler.getSharedInstance().scheduleAtFixedRate(this::step, 0, Robot.COMMAND_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void cancel() {
+        if (!done) {
+            finish();
+        }
+    }
+
+    private synchronized void step() {
+        if (done) {
+            return;
+        }
+        double t = (durationNs == 0) ? 1 : Math.min(1, (double) (System.nanoTime() - startNs) / durationNs);
+        double k = curve.apply(t);
+        for (int i = 0; i < values.length; i++) {
+            values[i] = from[i] + (to[i] - from[i]) * k;
+        }
+        try {
+            writer.accept(values);
+        } catch (RuntimeException e) {
+            LOG.error("Ramp step failed: {}", e.toString());
+            finish();
+            return;
+        }
+        if (t >= 1) {
+            finish();
+        }
+    }
+
+    private void finish() {
+        done = true;
+        if (task != null) {
+            task.cancel(false);
+            task = null;
+        }
+        if (onFinish != null) {
+            onFinish.run();
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.birdbraintechnologies.bluebirdconnector;
+
+// Start time of the HTTP request being handled on the current thread, so
+// that robot updates made while handling it can be traced back to when
+// the block fired. Set and cleared by RobotServlet.
+public final class RequestTrace {
+
+    private static final ThreadLocal<long[]> START = ThreadLocal.withInitial(() -> new long[1]);
+
+    private RequestTrace() { }
+
+    public static void begin() {
+        START.get()[0] = System.nanoTime();
+    }
+
+    public static void end() {
+        START.get()[0] = 0;
+    }
+
+    // System.nanoTime() at the start of the current request, or now if this
+    // thread is not handling one.
+    public static long start() {
+        long t = START.get()[0];
+        return t != 0 ? t : System.nanoTime();
+    }
+}
@@ -1,8 +1,19 @@
 package com.birdbraintechnologies.bluebirdconnector;
 
+import com.google.gson.JsonObject;
+
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.LockSupport;
 
 import static com.birdbraintechnologies.bluebirdconnector.RobotManager.*;
 
@@ -18,40 +29,89 @@ public abstract class Robot {
     private boolean isConnected;
     public boolean hasV2;
     private boolean isCalibrating;
-    private byte[] currentData;
-    private String currentBattery;
-    private String currentRSSI;
-
-    static final byte[] CALIBRATE_CMD = {(byte) 0xCE, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF};
-    //Outgoing BLE Data. 20 bytes
-    public static final int  SET_ALL_LENGTH = 20;
-    public byte[] setAllData = new byte[SET_ALL_LENGTH];
-    public byte[] ledDisplayData = new byte[SET_ALL_LENGTH];
-    public byte[] ledPrintData = new byte[SET_ALL_LENGTH];
-    public byte[] motorsData = new byte[SET_ALL_LENGTH];
-    //BLE data going out from deviceGTH];
+    private volatile SensorSnapshot snapshot;
+    private volatile long lastFrameNs; //arrival of the latest frame, duplicate or not
+    private BatteryLevel currentBattery;
+    private boolean currentRSSIKnown;
+    private short currentRSSIValue;
+    public final SensorTriggers triggers;
+    public final SensorLatches latches;
+    public final MotionQueue motionQueue; //Finch only, null for other robots
+    public final Odometry odometry; //Finch only, null for other robots
+    public final OrientationFilter orientation;
+    public final SensorDemand demand;
+    private volatile Controller controller; //null when no controller is running
+    public final RobotMetrics metrics = new RobotMetrics();
+
+    //Outgoing BLE Data. 20 bytes, encoded in place by the codec for this robot type
+    public static final int  SET_ALL_LENGTH = CommandCodec.FRAME_LENGTH;
+    final CommandCodec codec;
+    public final byte[] setAllData = new byte[SET_ALL_LENGTH];
+    public final byte[] ledDisplayData = new byte[SET_ALL_LENGTH];
+    public final byte[] ledPrintData = new byte[SET_ALL_LENGTH];
+    public final byte[] motorsData = new byte[SET_ALL_LENGTH];
+    private final byte[] finchFrame = new byte[SET_ALL_LENGTH]; //only used by the SetAllThread
 
     private static final class SetAllDataLock { }
-    private Object setAllDataChannelLock;
+    private final Object setAllDataChannelLock = new SetAllDataLock();
     private boolean setAllChanged;  //Change indicator
+    private long setAllRequestNs;  //Request time of the oldest unsent change, for tracing
 
     private static final class ledPrintLock { }
-    private Object ledPrintChannelLock; // each channel has its own lock
+    private final Object ledPrintChannelLock = new ledPrintLock(); // each channel has its own lock
     private boolean ledPrintChanged;  //Change indicator
-    private PrintMonitor printMonitor = null;
-    Thread printThread = null;
+    private long ledPrintRequestNs;
+    private ScheduledFuture<?> printTask = null; // guarded by ledPrintChannelLock
+    private CompletableFuture<Boolean> printDone = CompletableFuture.completedFuture(true);
+    private static final long PRINT_MS_PER_CHAR = 600;
+
+    private final Object melodyLock = new Object();
+    private ScheduledFuture<?> melodyTask = null; // guarded by melodyLock
+    private CompletableFuture<Boolean> melodyDone = CompletableFuture.completedFuture(true);
+
+    private final Object scriptLock = new Object();
+    private ScriptRun scriptRun = null; // guarded by scriptLock, the latest script run
+
+    //Output ramps, by output: "wheels" or "setAll<index>"
+    //Finished ramps remove themselves without the lock, hence the concurrent map
+    private final Map<String, Ramp> ramps = new ConcurrentHashMap<>(); // changes otherwise guarded by itself
+    //Wheel speeds last set through updateMotors, 0 while a tick move runs down
+    private volatile int wheelSpeedL, wheelSpeedR;
+
+    //LED animations playing, by Animation.getKey
+    private final Map<String, AnimationRun> animations = new HashMap<>(); // guarded by itself
 
     private static final class ledDisplayLock { }
-    private Object ledDisplayChannelLock; // each channel has its own lock
+    private final Object ledDisplayChannelLock = new ledDisplayLock(); // each channel has its own lock
     private boolean ledDisplayChanged;  //Change indicator
+    private long ledDisplayRequestNs;
 
     //finch command lock
     private static final class motorsLock { }
-    private Object motorsChannelLock; // each channel has its own lock
+    private final Object motorsChannelLock = new motorsLock(); // each channel has its own lock
     private boolean motorsChanged;
+    private long motorsRequestNs;
+
+    //Copies of what was last written on each channel, so that an identical
+    //frame is not sent again. Only touched by the SetAllThread and
+    //initializeSetAllChannel; a channel that is not valid is always sent.
+    private final byte[] lastSentSetAll = new byte[SET_ALL_LENGTH];
+    private final byte[] lastSentLedDisplay = new byte[SET_ALL_LENGTH];
+    private final byte[] lastSentMotors = new byte[8];
+    private boolean lastSentSetAllValid;
+    private boolean lastSentLedDisplayValid;
+    private boolean lastSentMotorsValid;
 
     private SetAllThread setAllThread;
-    private static final int COMMAND_INTERVAL = 30;
+    //Group output, see holdOutput. A hold that is never released lapses.
+    private volatile boolean outputHeld = false;
+    private volatile long heldSinceNs;
+    private volatile GroupRelease pendingRelease; //until the first command after a release
+    private static final long MAX_HOLD_NS = TimeUnit.SECONDS.toNanos(30);
+    static final int COMMAND_INTERVAL = 30;
+    //The SetAllThread sends each channel at most once per cycle, and a busy
+    //cycle is two intervals long. Faster animation frames would be dropped.
+    private static final long MIN_ANIMATION_FRAME_MS = 2 * COMMAND_INTERVAL;
 
     //Device Specific Constants
     int calibrationIndex;
@@ -63,12 +123,6 @@ public abstract class Robot {
     double voltageConst;
     int batteryMask; //TODO: is this the right type?
     double batteryTolerance;
-    int FREQ_INDEX_MSB;
-    int FREQ_INDEX_LSB;
-    int DURATION_INDEX_MSB;
-    int DURATION_INDEX_LSB;
-    byte setAllCmd;
-    byte[] stopAllCmd;
 
 
     public Robot(String robotName, RobotCommunicator rc) {
@@ -77,15 +131,22 @@ public abstract class Robot {
         ttsName = fancyName.substring(0, fancyName.lastIndexOf(" "));
         type = robotName.substring(0, 2);
         communicator = rc;
+        codec = CommandCodec.forType(type);
 
         tts = RobotManager.getSharedInstance().tts;
 
         isConnected = false;
         hasV2 = false;
-        currentBattery = "unknown";
-        currentRSSI = "";
-
-        currentData = new byte[20];
+        currentBattery = BatteryLevel.UNKNOWN;
+        currentRSSIKnown = false;
+
+        snapshot = SensorSnapshot.EMPTY; //no frame received yet
+        triggers = new SensorTriggers(this);
+        latches = new SensorLatches(this);
+        motionQueue = type.equals("FN") ? new MotionQueue(this) : null;
+        odometry = type.equals("FN") ? new Odometry() : null;
+        orientation = new OrientationFilter(type.equals("FN"));
+        demand = new SensorDemand(this);
         setAllChanged = false;
         ledPrintChanged = false;
         ledDisplayChanged = false;
@@ -109,45 +170,70 @@ public abstract class Robot {
     }
 
     private void sendCommand(byte[] command) {
+        sendCommand(command, RequestTrace.start());
+    }
+
+    // requestNs is when the HTTP request that caused this command came in.
+    private void sendCommand(byte[] command, long requestNs) {
         if (communicator != null && communicator.isRunning()) {
-            communicator.sendCommand(name, command);
+            demand.touch();
+            metrics.commandsSent.incrementAndGet();
+            long dispatchNs = System.nanoTime();
+            metrics.requestToDispatch.record(dispatchNs - requestNs);
+            GroupRelease release = pendingRelease;
+            if (release != null) {
+                pendingRelease = null;
+                release.dispatched(this, dispatchNs);
+            }
+            communicator.sendCommand(name, command, () -> {
+                long writtenNs = System.nanoTime();
+                metrics.dispatchToWrite.record(writtenNs - dispatchNs);
+                metrics.requestToWrite.record(writtenNs - requestNs);
+                if (release != null) {
+                    release.written(this, writtenNs);
+                }
+            });
         }
     }
 
-    private void initializeSetAllChannel() {
-        setAllDataChannelLock = new SetAllDataLock();
-        ledPrintChannelLock = new ledPrintLock();
-        ledDisplayChannelLock = new ledDisplayLock();
-        motorsChannelLock = new motorsLock();
-
-        /*for (int j=0; j < SET_ALL_LENGTH; j++) {
-            setAllData[channel][j] = 0;
-            ledDisplayData[channel][j] = 0;
-            ledPrintData[channel][j] = 0;
-            motorsData[channel][j] = 0;
-        }*/
-        setAllData = new byte[SET_ALL_LENGTH];
-        ledDisplayData = new byte[SET_ALL_LENGTH];
-        ledPrintData = new byte[SET_ALL_LENGTH];
-        motorsData = new byte[SET_ALL_LENGTH];
-
-        //assign only non-zero bytes:
-        setAllData[0] = setAllCmd;
-        if (!type.equals("FN")) {
-            //Servo off command
-            setAllData[9] = (byte) 0xFF;
-            setAllData[10] = (byte) 0xFF;
-            setAllData[11] = (byte) 0xFF;
-            setAllData[12] = (byte) 0xFF;
+    // Stops go through the transport's priority lane, ahead of (and
+    // replacing) whatever ordinary commands are still queued for this robot.
+    private void sendStopCommand(long requestNs) {
+        if (communicator != null && communicator.isRunning()) {
+            demand.touch();
+            metrics.stopsSent.incrementAndGet();
+            communicator.sendPriorityCommand(name, codec.stopAll,
+                    () -> metrics.stopToWrite.record(System.nanoTime() - requestNs));
         }
+    }
 
-        setAllChanged = false;
-        ledPrintChanged = false;
-        ledDisplayChanged = false;
-        motorsChanged = false;
+    private void initializeSetAllChannel() {
+        synchronized (setAllDataChannelLock) {
+            codec.initSetAll(setAllData);
+            setAllChanged = false;
+            //Robot state is unknown (or was just reset), so send the next frames
+            lastSentSetAllValid = false;
+        }
+        synchronized (ledPrintChannelLock) {
+            Arrays.fill(ledPrintData, (byte) 0);
+            ledPrintChanged = false;
+        }
+        synchronized (ledDisplayChannelLock) {
+            Arrays.fill(ledDisplayData, (byte) 0);
+            ledDisplayChanged = false;
+            lastSentLedDisplayValid = false;
+        }
+        synchronized (motorsChannelLock) {
+            Arrays.fill(motorsData, (byte) 0);
+            motorsChanged = false;
+            lastSentMotorsValid = false;
+            //Wheels are stopped, so a ramp starts from 0
+            wheelSpeedL = 0;
+            wheelSpeedR = 0;
+        }
         //masterDisconnect = false;
 
-        LOG.debug("setAll initialized with {} to {}", setAllCmd, Utilities.bytesToString(setAllData));
+        LOG.debug("setAll initialized with {} to {}", codec.setAllOpcode, Utilities.bytesToString(setAllData));
     }
 
 
@@ -165,6 +251,46 @@ public abstract class Robot {
         if (connected) {
             initializeSetAllChannel();
             setAllThread.start();
+            demand.start();
+        } else {
+            controller = null;
+            cancelRamps();
+            cancelScript();
+            cancelMelody();
+            cancelAnimations();
+            demand.stop();
+            //Long-polls would otherwise wait out their timeout on a robot that is gone
+            if (motionQueue != null) {
+                motionQueue.clear();
+            }
+            triggers.wakeWaiters();
+        }
+    }
+
+    // Starts or stops the sensor notification stream, see SensorDemand.
+    void setStreaming(boolean on) {
+        if (communicator != null && communicator.isRunning()) {
+            byte[] command = !on ? CommandCodec.POLL_STOP
+                    : hasV2 ? CommandCodec.POLL_START_V2 : CommandCodec.POLL_START_V1;
+            LOG.debug("setStreaming {}: {}", name, on);
+            communicator.sendCommand(name, command);
+        }
+    }
+
+    // Whether the wheels are turning: set to a continuous speed, or still
+    // moving on the last frame (a move by distance runs with the speeds at 0).
+    boolean isDriving() {
+        if (wheelSpeedL != 0 || wheelSpeedR != 0) {
+            return true;
+        }
+        return odometry != null
+                && (odometry.getLinearVelocity() != 0 || odometry.getAngularVelocityDegrees() != 0);
+    }
+
+    public void setPollingMode(PollingMode mode) {
+        demand.setMode(mode);
+        if (communicator != null) {
+            communicator.setPollingMode(name, mode);
         }
     }
     public boolean isConnected() {
@@ -173,7 +299,7 @@ public abstract class Robot {
 
 
     public void startCalibration() {
-        sendCommand(CALIBRATE_CMD);
+        sendCommand(CommandCodec.CALIBRATE);
 
         if (tts != null) {
             tts.say("Beginning calibration of " + ttsName);
@@ -194,13 +320,28 @@ public abstract class Robot {
         return Arrays.copyOfRange(setAllData, 1, 4);
     }
 
+    // Latest frame. Read several values from one snapshot, rather than
+    // calling getNotificationDataByte repeatedly, when they must agree.
+    public SensorSnapshot getSnapshot() {
+        return snapshot;
+    }
+
     public byte getNotificationDataByte(int index) {
-        if (index >= 0 && index < currentData.length) {
-            return currentData[index];
-        } else {
-            return 0;
-        }
+        return snapshot.getByte(index);
+    }
+    // System.nanoTime() when the latest frame arrived, 0 before the first one
+    public long getLastFrameNanos() {
+        return lastFrameNs;
     }
+
+    public String getTransportName() {
+        return communicator == null ? "none" : communicator.getClass().getSimpleName();
+    }
+
+    public JsonObject getTransportQueueMetrics() {
+        return communicator == null ? null : communicator.getQueueMetrics(name);
+    }
+
     public int getNotificationDataUInt(int index) {
         return (getNotificationDataByte(index) & 0xFF); //convert to unsigned int
     }
@@ -209,166 +350,354 @@ public abstract class Robot {
         synchronized (setAllDataChannelLock) {
             //setAllData[connection][0] = (byte)0xCA; // op code. this should never get overwritten but playing safe
             setAllData[index] = value;
+            if (!setAllChanged) { setAllRequestNs = RequestTrace.start(); }
             setAllChanged = true;
         }
     }
 
     public void updateSetAllLED(String port, byte rVal, byte gVal, byte bVal) {
-        boolean finch = type.equals("FN");
-        int ri = 0;
-        int gi = 0;
-        int bi = 0;
-        boolean setAllTail = false;
-        if (finch) {
-            if (port.equals("all")) {
-                setAllTail = true;
-            } else {
-                int portNum = Integer.parseInt(port) - 1;
-                ri = portNum * 3 + 1;
-                gi = ri + 1;
-                bi = gi + 1;
+        cancelAnimation("triled" + port);
+        setTriLed(port, rVal, gVal, bVal);
+    }
+
+    private void setTriLed(String port, byte rVal, byte gVal, byte bVal) {
+        synchronized (setAllDataChannelLock) {
+            if (!codec.encodeTriLed(setAllData, port, rVal, gVal, bVal)) {
+                LOG.error("TriLED port does not exist");
+                return;
             }
+            if (!setAllChanged) { setAllRequestNs = RequestTrace.start(); }
+            setAllChanged = true;
+        }
+    }
 
-        } else {
-            switch (port) { //LED number to byte mapping
-                case "1":
-                    ri = 3;
-                    gi = 4;
-                    bi = 5;
-                    break;
-                case "2":
-                    ri = 6;
-                    gi = 7;
-                    bi = 8;
-                    break;
-                default:
-                    LOG.error("TriLED port does not exist");
+    public void updateBuzzer(int note, int ms) {
+        LOG.debug("playnote parameters: note: {}  ms: {}", note, ms);
+        synchronized (setAllDataChannelLock) {
+            codec.encodeBuzzer(setAllData, note, ms);
+            if (!setAllChanged) { setAllRequestNs = RequestTrace.start(); }
+            setAllChanged = true;
+        }
+        //Don't leave a note waiting out the rest of an idle interval
+        LockSupport.unpark(setAllThread);
+    }
+
+    public void startMelody(Melody melody) {
+        CompletableFuture<Boolean> done = new CompletableFuture<>();
+        synchronized (melodyLock) {
+            cancelMelody();
+            melodyDone = done;
+            scheduleMelodyNote(melody, 0, System.nanoTime(), 0, done);
+        }
+    }
+
+    // Every note is scheduled from the melody's start time, so lateness
+    // in one task is not carried over to the next.
+    private void scheduleMelodyNote(Melody melody, int i, long startNs, long offsetMs, CompletableFuture<Boolean> done) {
+        long delayNs = Math.max(0, startNs + TimeUnit.MILLISECONDS.toNanos(offsetMs) - System.nanoTime());
+        melodyTask = RobotScheduler.getSharedInstance().schedule(() -> {
+            synchronized (melodyLock) {
+                if (done != melodyDone || done.isDone()) {
+                    return; // cancelled or replaced while waiting
+                }
+                if (i >= melody.size()) {
+                    melodyTask = null;
+                    done.complete(true);
                     return;
+                }
+                if (melody.getNote(i) != 0 && melody.getDuration(i) != 0) {
+                    updateBuzzer(melody.getNote(i), melody.getDuration(i));
+                }
+                scheduleMelodyNote(melody, i + 1, startNs, offsetMs + melody.getSpanMs(i), done);
             }
+        }, delayNs, TimeUnit.NANOSECONDS);
+    }
+
+    // While held, the SetAllThread sends nothing and updates collect in the
+    // channels, so that a group of robots can be released together.
+    public void holdOutput() {
+        heldSinceNs = System.nanoTime();
+        outputHeld = true;
+    }
+
+    public void releaseOutput(GroupRelease release) {
+        pendingRelease = release;
+        outputHeld = false;
+        LockSupport.unpark(setAllThread);
+    }
+
+    public boolean isOutputHeld() {
+        return outputHeld && System.nanoTime() - heldSinceNs < MAX_HOLD_NS;
+    }
+
+    // Ramps both Finch wheels from their current speeds to left and right.
+    public void startWheelRamp(int left, int right, long durationMs, Ramp.Curve curve) {
+        if (motionQueue != null) {
+            motionQueue.clear();
         }
+        releaseWheels();
+        startRamp("wheels", new Ramp(new double[] {wheelSpeedL, wheelSpeedR}, new double[] {left, right}, durationMs, curve,
+                (v) -> updateMotors((int) Math.round(v[0]), 0, (int) Math.round(v[1]), 0)));
+    }
+
+    // Ramps one setAll byte (a Hummingbird servo or motor port) to target.
+    // A port that is off (0xFF) has no position to start from, so it goes
+    // straight to the target.
+    public void startSetAllRamp(int index, int target, long durationMs, Ramp.Curve curve) {
+        int current;
         synchronized (setAllDataChannelLock) {
-            if (setAllTail) {
-                setAllData[4] = rVal;
-                setAllData[5] = gVal;
-                setAllData[6] = bVal;
-                setAllData[7] = rVal;
-                setAllData[8] = gVal;
-                setAllData[9] = bVal;
-                setAllData[10] = rVal;
-                setAllData[11] = gVal;
-                setAllData[12] = bVal;
-                setAllData[13] = rVal;
-                setAllData[14] = gVal;
-                setAllData[15] = bVal;
-            } else {
-                //setAllData[connection][0] = (byte)0xCA; // op code. this should never get overwritten but playing safe
-                setAllData[ri] = rVal;
-                setAllData[gi] = gVal;
-                setAllData[bi] = bVal;
+            current = setAllData[index] & 0xFF;
+        }
+        double from = (current == 0xFF) ? target : current;
+        releaseSetAll(index);
+        startRamp("setAll" + index, new Ramp(new double[] {from}, new double[] {target}, durationMs, curve,
+                (v) -> updateSetAll(index, (byte) Math.round(v[0]))));
+    }
+
+    private void startRamp(String key, Ramp ramp) {
+        synchronized (ramps) {
+            Ramp old = ramps.put(key, ramp);
+            if (old != null) {
+                old.cancel();
             }
-            setAllChanged = true;
+            ramp.start(() -> ramps.remove(key, ramp));
         }
     }
 
-    public void updateBuzzer(int note, int ms) {
-        // Switch off note by default
-        byte period_msb = 0;
-        byte period_lsb = 0;
-        byte duration_msb = 0;
-        byte duration_lsb = 0;
+    public void cancelRamp(String key) {
+        synchronized (ramps) {
+            Ramp ramp = ramps.remove(key);
+            if (ramp != null) {
+                ramp.cancel();
+            }
+        }
+    }
 
-        if (!((note == 0) || ms == 0)) { //Valid note to play
-            LOG.debug("HummingbirdServlet: playnote parameters: note: {}  ms: {}", note, ms);
+    public void cancelRamps() {
+        synchronized (ramps) {
+            for (Ramp ramp : ramps.values()) {
+                ramp.cancel();
+            }
+            ramps.clear();
+        }
+    }
 
-            //Calculate the frequency from the MIDI note: https://newt.phys.unsw.edu.au/jw/notes.html
-            double exp = (note - 69.0) / 12.0;
-            //System.out.println ("exp = " + exp);
-            double frequency = Math.pow(2.0, exp) * 440;  //Hz
-            //frequencyInt = (int)Math.round(frequency);
-            int period_us = (int) Math.round(1000000 / frequency);
-            LOG.debug("Hz = {},  period(us) = {}", frequency, period_us);
+    // Replaces the controller that is running, if any.
+    public void startController(Controller newController) {
+        if (newController.drivesWheels() && motionQueue != null) {
+            motionQueue.clear();
+        }
+        controller = newController;
+        demand.touch();
+    }
 
-            //Convert ints to bytes
-            period_msb = (byte) (period_us >> 8);
-            period_lsb = (byte) period_us;
+    // A direct command on an output takes it over from a controller driving
+    // it, which would otherwise overwrite the command on its next change.
+    // The output is left as it is, since the command sets it.
+    public void releaseWheels() {
+        Controller running = controller;
+        if (running != null && running.drivesWheels()) {
+            controller = null;
+        }
+    }
 
-            duration_msb = (byte) (ms >> 8);
-            duration_lsb = (byte) ms;
+    public void releaseSetAll(int index) {
+        Controller running = controller;
+        if (running != null && running.output == Controller.Output.SERVO && 8 + running.port == index) {
+            controller = null;
+        }
+    }
 
+    // Wheels a controller was driving are stopped, a servo stays put.
+    public void stopController() {
+        Controller old = controller;
+        controller = null;
+        if (old != null && old.drivesWheels()) {
+            updateMotors(0, 0, 0, 0);
         }
+    }
 
-        //String connType = getConnectionType(connection);
-        //boolean finch = connType.equals("FN");
-        synchronized (setAllDataChannelLock) {
-            setAllData[FREQ_INDEX_MSB] = period_msb;
-            setAllData[FREQ_INDEX_LSB] = period_lsb;
-            setAllData[DURATION_INDEX_MSB] = duration_msb;
-            setAllData[DURATION_INDEX_LSB] = duration_lsb;
-            setAllChanged = true;
+    public Controller getController() {
+        return controller;
+    }
+
+    // Replaces the script that is running, if any.
+    public void startScript(Script script) {
+        synchronized (scriptLock) {
+            cancelScript();
+            scriptRun = new ScriptRun(this, script);
+            scriptRun.start();
+        }
+    }
+
+    // Stops the script. Motion it already queued carries on.
+    public void cancelScript() {
+        synchronized (scriptLock) {
+            if (scriptRun != null) {
+                scriptRun.cancel();
+            }
+        }
+    }
+
+    // The latest script run, or null if no script has been started.
+    public ScriptRun getScriptRun() {
+        synchronized (scriptLock) {
+            return scriptRun;
+        }
+    }
+
+    private static final class AnimationRun {
+        final Animation animation;
+        final long startNs;
+        final long frameNs;
+        ScheduledFuture<?> task;
+
+        AnimationRun(Animation animation, long startNs, long frameNs) {
+            this.animation = animation;
+            this.startNs = startNs;
+            this.frameNs = frameNs;
+        }
+    }
+
+    // Replaces whatever was playing on the same LEDs.
+    public void startAnimation(Animation animation) {
+        if (animation.target == Animation.Target.SYMBOL) {
+            cancelPrint();
+        }
+        long frameMs = Math.max(animation.frameMs, MIN_ANIMATION_FRAME_MS);
+        AnimationRun run = new AnimationRun(animation, System.nanoTime(), TimeUnit.MILLISECONDS.toNanos(frameMs));
+        synchronized (animations) {
+            cancelAnimation(animation.getKey());
+            animations.put(animation.getKey(), run);
+            scheduleAnimationFrame(run, 0);
         }
     }
 
-    private void clearBuzzerBytes () {
-        setAllData[FREQ_INDEX_MSB] = 0;
-        setAllData[FREQ_INDEX_LSB] = 0;
-        setAllData[DURATION_INDEX_MSB] = 0;
-        setAllData[DURATION_INDEX_LSB] = 0;
+    private void scheduleAnimationFrame(AnimationRun run, long i) {
+        long delayNs = Math.max(0, run.startNs + i * run.frameNs - System.nanoTime());
+        run.task = RobotScheduler.getSharedInstance().schedule(() -> {
+            synchronized (animations) {
+                Animation animation = run.animation;
+                if (animations.get(animation.getKey()) != run) {
+                    return; // cancelled or replaced while waiting
+                }
+                if (i >= animation.size() && !animation.loop) {
+                    animations.remove(animation.getKey());
+                    return;
+                }
+                int frame = animation.getFrame((int) (i % animation.size()));
+                if (animation.target == Animation.Target.SYMBOL) {
+                    showSymbol(frame);
+                } else {
+                    setTriLed(animation.port, (byte) (frame >> 16), (byte) (frame >> 8), (byte) frame);
+                }
+                scheduleAnimationFrame(run, i + 1);
+            }
+        }, delayNs, TimeUnit.NANOSECONDS);
+    }
+
+    public void cancelAnimation(String key) {
+        synchronized (animations) {
+            AnimationRun run = animations.remove(key);
+            if (run != null && run.task != null) {
+                run.task.cancel(false);
+            }
+        }
+    }
+
+    public void cancelAnimations() {
+        synchronized (animations) {
+            for (AnimationRun run : animations.values()) {
+                if (run.task != null) {
+                    run.task.cancel(false);
+                }
+            }
+            animations.clear();
+        }
+    }
+
+    // A note already sent to the robot plays out its duration.
+    public void cancelMelody() {
+        synchronized (melodyLock) {
+            if (melodyTask != null) {
+                melodyTask.cancel(false);
+                melodyTask = null;
+            }
+            melodyDone.complete(false);
+        }
+    }
+
+    // Waits for the current melody to finish. Returns false on timeout, or
+    // if the melody was cancelled.
+    public boolean awaitMelody(long timeoutMs) throws InterruptedException {
+        CompletableFuture<Boolean> done;
+        synchronized (melodyLock) {
+            done = melodyDone;
+        }
+        try {
+            return done.get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException | TimeoutException e) {
+            return false;
+        }
+    }
+
+    // The buzzer fields are one-shot: a note is played every time they are
+    // sent, so a frame carrying a note is never redundant.
+    private boolean isRedundantSetAll() {
+        return lastSentSetAllValid && !codec.hasBuzzerNote(setAllData)
+                && Arrays.equals(setAllData, lastSentSetAll);
+    }
+
+    // Re-sending a move with a tick count would start it over, so only
+    // continuous (zero tick) wheel speeds can be skipped.
+    private boolean isRedundantMotors(byte[] motors) {
+        return CommandCodec.isContinuous(motors) && lastSentMotorsValid && Arrays.equals(motors, 0, 8, lastSentMotors, 0, 8);
+    }
+
+    // pixels: bit n for LED n of the 5x5 display, see CommandCodec.encodeSymbol
+    public void setSymbol(int pixels) {
+        cancelPrint();
+        cancelAnimation("symbol");
+        showSymbol(pixels);
     }
 
-    public void setSymbol(byte[] data) {
-        killPrintThread();
+    private void showSymbol(int pixels) {
         synchronized (ledDisplayChannelLock) {
-            //data copy is an atomic operation under the lock
-            for(int i = 0; i < data.length; i++)
-                ledDisplayData[i] = data[i];
+            CommandCodec.encodeSymbol(pixels, ledDisplayData);
+            if (!ledDisplayChanged) { ledDisplayRequestNs = RequestTrace.start(); }
             ledDisplayChanged = true;
             LOG.debug("displayToHummingbird: {}", Utilities.bytesToString(ledDisplayData));
         }
     }
 
     public void resetEncoders() {
-        byte [] command = {(byte)0xD5};
-        sendCommand(command);
+        sendCommand(CommandCodec.RESET_ENCODERS);
     }
 
     // note: ticks must always be positive, or it can be 0 to indicate no limit.
     public void updateMotors(int speedL, int ticksL, int speedR, int ticksR) {
-        byte[] left = getMotorArray(speedL, ticksL);
-        byte[] right = getMotorArray(speedR, ticksR);
-
+        wheelSpeedL = (ticksL == 0) ? speedL : 0;
+        wheelSpeedR = (ticksR == 0) ? speedR : 0;
         synchronized (motorsChannelLock) {
-
-            for (int i = 0; i < 4; i++) {
-                motorsData[i] = left[i];
-                motorsData[i + 4] = right[i];
-            }
-
+            CommandCodec.encodeMotor(speedL, ticksL, motorsData, 0);
+            CommandCodec.encodeMotor(speedR, ticksR, motorsData, 4);
+            if (!motorsChanged) { motorsRequestNs = RequestTrace.start(); }
             motorsChanged = true;
             LOG.debug("updateMotors: {}", Utilities.bytesToString(motorsData));
         }
     }
-    private byte[] getMotorArray(int speed, int ticks){
-        // speed in [-100, +100]
-        int absSpeed = Math.abs(speed);
-        // absSpeed in [0, 100]
-        int sSpeed = (int) Math.round(absSpeed * FINCH_SPEED_SCALING);
-        // sSpeed in [0, MAX]
-        if (sSpeed < 3 && sSpeed != 0) { sSpeed = 3; }
-        // sSpeed in 0 + [3, MAX]
-        byte scaledSpeed = (byte) sSpeed;
-        if (speed > 0) { scaledSpeed += 128;}
-        // scaledSpeed as a sign bit at the top, 1 for forward, 0 for backwards
-        LOG.debug("speed scaling... {} -> {} -> {} -> {}", speed, absSpeed, sSpeed, scaledSpeed);
-        byte ticksMSB = (byte) ((ticks & 0xFF0000) >> 16);
-        byte ticksSSB = (byte) ((ticks & 0x00FF00) >> 8);
-        byte ticksLSB = (byte) (ticks & 0x0000FF);
-        byte[] array = new byte[] {scaledSpeed, ticksMSB, ticksSSB, ticksLSB};
-
-        return array;
-    }
 
     public void stopAll() {
-        killPrintThread(); // kill printThread if running
+        outputHeld = false;
+        controller = null;
+        cancelRamps();
+        cancelScript();
+        cancelPrint();
+        cancelMelody();
+        cancelAnimations();
+        if (motionQueue != null) {
+            motionQueue.clear();
+        }
         //ScratchME.blueBirdDriver.sendStopAllCommand(connection);
 
         /*byte [] command = {(byte)0xCB, (byte)0xFF, (byte)0xFF, (byte)0xFF}; // stop All command
@@ -379,21 +708,62 @@ public abstract class Robot {
         LOG.debug("sendStopAllCommand: Channel {},  command: {}", connection, bytesToString(command));
 
         sendCommand(command, connection);*/
-        sendCommand(stopAllCmd);
 
-        //Clear set all array back to initial state
+        //Clear set all array back to initial state first, so that the
+        //SetAllThread has nothing left to send after the stop
         initializeSetAllChannel();
-
-        killPrintThreadDelay(200);
+        sendStopCommand(RequestTrace.start());
     }
 
 
+    // Note: bytes may be a buffer the transport reuses for the next frame, so
+    // it is copied here and never kept.
     public void receiveNotification(byte[] bytes, Short rssi) {
-        currentData = bytes;
+        boolean rssiKnown = (rssi != null);
+        short rssiValue = rssiKnown ? rssi : 0;
+        metrics.notificationsReceived.incrementAndGet();
+        lastFrameNs = System.nanoTime();
+        demand.frameReceived();
+
+        //Checked on every frame, since a queued move may be waiting on a timeout
+        if (motionQueue != null) {
+            motionQueue.update(bytes);
+        }
+        //Also every frame, so that the velocity estimate decays when the wheels stop
+        if (odometry != null) {
+            odometry.update(bytes);
+        }
+        //And the orientation estimate keeps converging while the robot is still
+        orientation.update(bytes);
+        //A controller acts on every frame, since its timing is part of the loop
+        Controller activeController = controller;
+        if (activeController != null) {
+            activeController.update(this, bytes, lastFrameNs);
+        }
+
+        // Robots stream the same frame over and over while nothing changes.
+        // Unless we are waiting on a calibration result, there is nothing to do.
+        SensorSnapshot previous = snapshot;
+        boolean sameData = Arrays.equals(bytes, previous.data);
+        if (!isCalibrating && sameData
+                && rssiKnown == currentRSSIKnown && rssiValue == currentRSSIValue) {
+            metrics.notificationsDuplicate.incrementAndGet();
+            return;
+        }
+
+        //Only changed data is published, as a new immutable snapshot
+        byte[] frame = previous.data;
+        if (!sameData) {
+            frame = Arrays.copyOf(bytes, bytes.length);
+            snapshot = new SensorSnapshot(frame, previous.sequence + 1, lastFrameNs);
+        }
+
+        latches.update(frame);
+        triggers.evaluate(frame);
 
         if (isCalibrating) {
             //get byte containing calibration bits
-            byte calibrationByte = bytes[calibrationIndex];
+            byte calibrationByte = frame[calibrationIndex];
             byte calibrationStatus = (byte) (calibrationByte & (byte) 0x0C);
             LOG.debug("Calibration Status: {}", calibrationStatus);
 
@@ -414,213 +784,91 @@ public abstract class Robot {
         }
 
         //Check battery state
-        byte battByte = bytes[batteryIndex];
-        int battInt = battByte;
+        byte battByte = frame[batteryIndex];
         int battUInt = battByte & batteryMask;
-        // LOG.debug("Battery: Byte = 0x{}, mask = 0x{}, result = 0x{}", 
-        //         Integer.toHexString((int)(battByte & 0xff)),
-        //         Integer.toHexString(batteryMask),
-        //         Integer.toHexString(battUInt));
         double voltage = (battUInt + voltageConst) * rawToVoltage;
-        // LOG.debug("Robot status: {} volts, RSSI {} dBm", voltage, rssi);
-        String battLevel = "unknown";
-        switch (currentBattery) {
-            case "unknown":
-                if (voltage > fullThresh) {
-                    battLevel = "full";
-                } else if (voltage > greenThresh) {
-                    battLevel = "green";
-                } else if (voltage > yellowThresh) {
-                    battLevel = "yellow";
-                } else {
-                    battLevel = "red";
-                }
-                break;
-            case "full":
-                if (voltage > fullThresh - batteryTolerance) {
-                    battLevel = "full";
-                } else if (voltage > greenThresh) {
-                    battLevel = "green";
-                } else if (voltage > yellowThresh) {
-                    battLevel = "yellow";
-                } else {
-                    battLevel = "red";
-                }
-                break;
-            case "green":
-                if (voltage > fullThresh + batteryTolerance) {
-                    battLevel = "full";
-                } else if (voltage > greenThresh - batteryTolerance) {
-                    battLevel = "green";
-                } else if (voltage > yellowThresh) {
-                    battLevel = "yellow";
-                } else {
-                    battLevel = "red";
-                }
-                break;
-            case "yellow":
-                if (voltage > fullThresh) {
-                    battLevel = "full";
-                } else if (voltage > greenThresh + batteryTolerance) {
-                    battLevel = "green";
-                } else if (voltage > yellowThresh - batteryTolerance) {
-                    battLevel = "yellow";
-                } else {
-                    battLevel = "red";
-                }
-                break;
-            case "red":
-                if (voltage > fullThresh) {
-                    battLevel = "full";
-                } else if (voltage > greenThresh) {
-                    battLevel = "green";
-                } else if (voltage > yellowThresh + batteryTolerance) {
-                    battLevel = "yellow";
-                } else {
-                    battLevel = "red";
-                }
-                break;
-        }
-
-        String rssiLevel = (rssi == null ? "" : String.valueOf(rssi));
+        BatteryLevel battLevel = currentBattery.next(voltage, fullThresh, greenThresh, yellowThresh, batteryTolerance);
 
-        boolean rssiChanged = !rssiLevel.equals(currentRSSI);
-        boolean battChanged = !battLevel.equals(currentBattery);
+        boolean rssiChanged = (rssiKnown != currentRSSIKnown) || (rssiValue != currentRSSIValue);
+        boolean battChanged = (battLevel != currentBattery);
         if (rssiChanged || battChanged) {
-            currentRSSI = rssiLevel;
+            currentRSSIKnown = rssiKnown;
+            currentRSSIValue = rssiValue;
             currentBattery = battLevel;
-            FrontendServer.getSharedInstance().updateBatteryState(name, battLevel, rssiLevel);
+            String rssiLevel = rssiKnown ? String.valueOf(rssiValue) : "";
+            FrontendServer.getSharedInstance().updateBatteryState(name, battLevel.label, rssiLevel);
 
             if (battChanged && tts != null) {
-                tts.say(ttsName + " battery " + battLevel);
+                tts.say(ttsName + " battery " + battLevel.label);
             }
         }
-
-
-        //hashtable.put(devLetter, battLevel);
-        //LOG.debug("getBatteryData for {}: {} -> {} -> {}", i, battUInt, battData, battLevel);
     }
 
+    // Text is shown MAX_LED_PRINT_WORD_LEN characters at a time. Each chunk is
+    // sent from the shared scheduler, and the next one is scheduled for when
+    // the robot will have finished scrolling it.
     public void startPrint (char[] charBuf) {
-        try {
-            // kill printThread before starting a new one.
-            killPrintThread ();
-
-            printMonitor = new PrintMonitor (charBuf);
-            printThread = new Thread(printMonitor);
-            printThread.start();
-
-        } catch (Exception e) {
-            LOG.info("startPrint(): Exception: {}", e.toString());
-        }
-    }
-
-    private void sendPrintCommand(char[] cArray) {
-        byte[] flashCommand = new byte [20];
-        int wordLength = 0;
-        int j = 2;
-        for (int i = 0; i < cArray.length; i++) {
-            if (i >= MAX_LED_PRINT_WORD_LEN)
-                break;
-            LOG.debug("Char[{}]: {}, Word Length: {}", i, cArray[i], wordLength);
-            flashCommand[j++] = (byte)(cArray[i]);
-            wordLength++;
-        }
-
-        flashCommand[0] = (byte)0xCC;
-        byte flashLength = (byte)(wordLength);
-        byte flashByte = (byte)(flashLength & 0x0F);
-        flashByte |= (4 << 4) & 0xFF;
-        flashCommand[1] = flashByte;
-
-        /*LOG.debug("Microbit print bytes: {}" , ScratchME.blueBirdDriver.bytesToString(flashCommand));
-        ScratchME.blueBirdDriver.printToHummingbird(connection, flashCommand);*/
-
+        cancelAnimation("symbol");
+        CompletableFuture<Boolean> done = new CompletableFuture<>();
         synchronized (ledPrintChannelLock) {
-            //data copy is an atomic operation under the lock
-            for(int i = 0; i < flashCommand.length; i++)
-                ledPrintData[i] = flashCommand[i];
-            ledPrintChanged = true;
-            LOG.debug("printToHummingbird {}", Utilities.bytesToString(ledPrintData));
+            // cancel the current print before starting a new one.
+            cancelPrint();
+            printDone = done;
+            schedulePrintChunk(charBuf, 0, 0, done);
         }
     }
 
-    private class PrintMonitor extends Thread {
-        boolean quit = false;
-        char [] cArray;
-        //int connection;
-
-        public PrintMonitor(char[] charBuf) {
-            cArray = charBuf;
-            //connection = conn;
-        }
-
-        @Override
-        public void run() {
-            LOG.debug("Thread PrintMonitor" + this.getName() + " started");
-            try {
-                // beg and end are indices, not length.
-                int beg = 0;
-                int end = 0;
-
-                while (((end) < (cArray.length)) && (!Thread.currentThread().isInterrupted())) {
-                    if ((beg + MAX_LED_PRINT_WORD_LEN) < cArray.length) {
-                        end = (beg + MAX_LED_PRINT_WORD_LEN) -1;
-                        LOG.debug("Mid-bucket");
-                    }
-                    else {
-                        end = beg + (cArray.length - beg) -1;
-                        LOG.debug("Last-bucket");
-                    }
-
-                    LOG.debug ("Beginning: {}, End: {}", beg, end);
-
-                    char [] charBuffer = Utilities.subArray(cArray, beg, end);
-
-                    beg = end+1;
-                    end = beg;
-
-                    // Don't send command if thread got interrupted mid loop.
-                    if (Thread.currentThread().isInterrupted())
-                        break;
-                    sendPrintCommand(charBuffer);
-
-                    Thread.sleep(charBuffer.length * 600); // number of chars * 600ms per char
+    private void schedulePrintChunk(char[] cArray, int beg, long delayMs, CompletableFuture<Boolean> done) {
+        printTask = RobotScheduler.getSharedInstance().schedule(() -> {
+            synchronized (ledPrintChannelLock) {
+                if (done != printDone || done.isDone()) {
+                    return; // cancelled or replaced while waiting
                 }
-
-                LOG.debug("Thread PrintMonitor {} ended", this.getName());
-
-            } catch (InterruptedException e) {
-                LOG.debug("HummingbirdServelet {} Interrupted : {}" , this.getName(), e.toString());
+                if (beg >= cArray.length) {
+                    printTask = null;
+                    done.complete(true);
+                    return;
+                }
+                int length = Math.min(MAX_LED_PRINT_WORD_LEN, cArray.length - beg);
+                LOG.debug ("Beginning: {}, Length: {}", beg, length);
+                sendPrintCommand(cArray, beg, length);
+                // number of chars * 600ms per char
+                schedulePrintChunk(cArray, beg + length, length * PRINT_MS_PER_CHAR, done);
             }
-        }
-
-        public void quit () {
-            LOG.info("PrintMonitor() Timeout: Sending quit signal");
-            //this.interupt();
-        }
+        }, delayMs, TimeUnit.MILLISECONDS);
     }
 
-    public void killPrintThread () {
-        // kill the print thread.
-        if (printThread != null)
-            if (printThread.isAlive()) {
-                printThread.interrupt(); // Kill the thread before displaying LED matrix
+    public void cancelPrint() {
+        synchronized (ledPrintChannelLock) {
+            if (printTask != null) {
+                printTask.cancel(false);
+                printTask = null;
             }
+            printDone.complete(false);
+        }
     }
 
-    public void killPrintThreadDelay (long delay) {
-        // kill the print thread.
-        if (printThread != null)
-            try {
-                Thread.sleep(delay);
-                if (printThread.isAlive()) {
-                    printThread.interrupt(); // Kill the thread before displaying LED matrix
-                }
+    // Waits for the current print to finish scrolling. Returns false on
+    // timeout, or if the print was cancelled.
+    public boolean awaitPrint(long timeoutMs) throws InterruptedException {
+        CompletableFuture<Boolean> done;
+        synchronized (ledPrintChannelLock) {
+            done = printDone;
+        }
+        try {
+            return done.get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException | TimeoutException e) {
+            return false;
+        }
+    }
 
-            } catch (InterruptedException e) {
-                LOG.debug("killPrintThreadDelay {} Interrupted : {}", e.toString());
-            }
+    private void sendPrintCommand(char[] cArray, int offset, int length) {
+        synchronized (ledPrintChannelLock) {
+            CommandCodec.encodePrint(cArray, offset, length, ledPrintData);
+            if (!ledPrintChanged) { ledPrintRequestNs = RequestTrace.start(); }
+            ledPrintChanged = true;
+            LOG.debug("printToHummingbird {}", Utilities.bytesToString(ledPrintData));
+        }
     }
 
     private class SetAllThread extends Thread {
@@ -628,15 +876,26 @@ public abstract class Robot {
         public void run() {
             while(isConnected) {
 
+                if (isOutputHeld()) {
+                    //Staged for a group release, which unparks us
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(COMMAND_INTERVAL));
+                    continue;
+                }
+
                 boolean firstCommandSent = false;
                 //Send set all
                 synchronized (setAllDataChannelLock) {
-                    if (setAllChanged) {
+                    if (setAllChanged && isRedundantSetAll()) {
+                        metrics.writesSuppressed.incrementAndGet();
+                        setAllChanged = false;
+                    } else if (setAllChanged) {
                         try {
                             LOG.debug("sendSetAllWriteCommand: sending SetAll data to {}", name);
                             LOG.debug("{}", Utilities.bytesToString(setAllData));
-                            sendCommand(setAllData);
-                            clearBuzzerBytes();
+                            sendCommand(setAllData, setAllRequestNs);
+                            codec.clearBuzzer(setAllData);
+                            System.arraycopy(setAllData, 0, lastSentSetAll, 0, SET_ALL_LENGTH);
+                            lastSentSetAllValid = true;
                             firstCommandSent = true;
                         } catch (Exception e) {
                             LOG.error("SetAll ERROR: " + e.toString());
@@ -662,57 +921,57 @@ public abstract class Robot {
                         byte[] ledDisplay = ledDisplayData;
                         byte[] ledPrint = ledPrintData;
                         byte[] motors = motorsData;
-                        int printlength = ledPrint[1] - 64;
-                        byte[] command = new byte[20];
-                        command[0] = (byte)0xD2;
-
-                        byte mode = 0;
-                        if (motorsChanged){
-                            for (int i = 0; i < 8; i++){
-                                command[i+2] = motors[i];
-                            }
-                            if (ledPrintChanged){
-                                mode = (byte)(0x80 + printlength);
-                                for (int i = 0; i < printlength; i++){
-                                    command[i+10] = ledPrint[i+2];
-                                }
-                            } else if (ledDisplayChanged){
-                                mode = 0x60;
-                                for (int i = 0; i < 4; i++){
-                                    command[i+10] = ledDisplay[i+2];
-                                }
-                            } else {
-                                mode = 0x40;
-                            }
-                        } else if (ledPrintChanged) {
-                            mode = (byte)printlength;
-                            for (int i = 0; i < printlength; i++){
-                                command[i+2] = ledPrint[i+2];
-                            }
-                        } else if (ledDisplayChanged) {
-                            mode = 0x20;
-                            for (int i = 0; i < 4; i++){
-                                command[i+2] = ledDisplay[i+2];
-                            }
+                        boolean sendMotors = motorsChanged;
+                        if (sendMotors && isRedundantMotors(motors)) {
+                            metrics.writesSuppressed.incrementAndGet();
+                            sendMotors = false;
                         }
-                        command[1] = mode;
+                        boolean sendDisplay = ledDisplayChanged && !ledPrintChanged;
+                        if (sendDisplay && lastSentLedDisplayValid && Arrays.equals(ledDisplay, 2, 6, lastSentLedDisplay, 2, 6)) {
+                            metrics.writesSuppressed.incrementAndGet();
+                            sendDisplay = false;
+                        }
+
+                        byte[] command = finchFrame;
+                        byte mode = CommandCodec.encodeFinchFrame(command, sendMotors ? motors : null,
+                                ledPrintChanged ? ledPrint : null, sendDisplay ? ledDisplay : null);
+                        //Trace the combined frame from the oldest change it carries
+                        long requestNs = System.nanoTime();
+                        if (sendMotors && motorsRequestNs - requestNs < 0) { requestNs = motorsRequestNs; }
+                        if (ledPrintChanged && ledPrintRequestNs - requestNs < 0) { requestNs = ledPrintRequestNs; }
+                        else if (sendDisplay && ledDisplayRequestNs - requestNs < 0) { requestNs = ledDisplayRequestNs; }
 
                         if (mode != 0) {
-                            LOG.debug("sendFinchMotorsCommand printlength={} ledPrint={}", printlength, Utilities.bytesToString(ledPrint));
-                            sendCommand(command);
-                            ledDisplayChanged = false;
-                            ledPrintChanged = false;
-                            motorsChanged = false;
+                            LOG.debug("sendFinchMotorsCommand {}", Utilities.bytesToString(command));
+                            sendCommand(command, requestNs);
+                            if (sendMotors) {
+                                System.arraycopy(motors, 0, lastSentMotors, 0, 8);
+                                lastSentMotorsValid = true;
+                            }
+                            if (ledPrintChanged) {
+                                lastSentLedDisplayValid = false; //the print replaced the symbol
+                            } else if (sendDisplay) {
+                                System.arraycopy(ledDisplay, 0, lastSentLedDisplay, 0, SET_ALL_LENGTH);
+                                lastSentLedDisplayValid = true;
+                            }
                             secondCommandSent = true;
                         }
+                        ledDisplayChanged = false;
+                        ledPrintChanged = false;
+                        motorsChanged = false;
 
                     }
                 } else {
                     synchronized (ledDisplayChannelLock) {
-                        if (ledDisplayChanged) {
+                        if (ledDisplayChanged && lastSentLedDisplayValid && Arrays.equals(ledDisplayData, lastSentLedDisplay)) {
+                            metrics.writesSuppressed.incrementAndGet();
+                            ledDisplayChanged = false;
+                        } else if (ledDisplayChanged) {
                             try {
                                 LOG.debug("Sending ledDisplayData Data to {}", name);
-                                sendCommand(ledDisplayData);
+                                sendCommand(ledDisplayData, ledDisplayRequestNs);
+                                System.arraycopy(ledDisplayData, 0, lastSentLedDisplay, 0, SET_ALL_LENGTH);
+                                lastSentLedDisplayValid = true;
                                 secondCommandSent = true;
                             } catch (Exception e) {
                                 LOG.error("ERROR: ledDisplay Timer: {}" , e.toString());
@@ -726,7 +985,8 @@ public abstract class Robot {
                         if (ledPrintChanged) {
                             try {
                                 LOG.debug("Sending ledPrint Data to {}, Print bytes: {}", name, Utilities.bytesToString(ledPrintData));
-                                sendCommand(ledPrintData);
+                                sendCommand(ledPrintData, ledPrintRequestNs);
+                                lastSentLedDisplayValid = false; //the print replaced the symbol
                                 secondCommandSent = true;
                             } catch (Exception e) {
                                 LOG.error("ERROR: ledPrint Timer: {}" , e.toString());
@@ -739,13 +999,16 @@ public abstract class Robot {
                 }
 
 
-                if (secondCommandSent || !firstCommandSent) {
+                if (secondCommandSent) {
                     try {
                         Thread.sleep(COMMAND_INTERVAL);
                     } catch (InterruptedException e) {
                         LOG.error("Error sleeping");
                         e.printStackTrace();
                     }
+                } else if (!firstCommandSent) {
+                    //Nothing was sent. Wait out the interval, unless a buzzer note comes in
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(COMMAND_INTERVAL));
                 }
 
             }
@@ -1,5 +1,7 @@
 package com.birdbraintechnologies.bluebirdconnector;
 
+import com.google.gson.JsonObject;
+
 public interface RobotCommunicator {
 
     // NOTE: name, address, and robotName appear to be synonymous.
@@ -9,6 +11,28 @@ public interface RobotCommunicator {
     void stopDiscovery(); //Stop looking for robots
     // void cancelConnectionRequest(); //Cancel the current connection request -- unused
     void sendCommand(String robotName, byte[] command); //Send command to specified device
+    // Same as sendCommand, but runs written once the transport has finished
+    // the write, for latency tracing. Transports that can't tell when that
+    // happens run it as soon as the command has been handed over.
+    default void sendCommand(String robotName, byte[] command, Runnable written) {
+        sendCommand(robotName, command);
+        written.run();
+    }
+    // For stop commands: jump ahead of anything already queued for the robot
+    // and drop queued commands the stop makes stale. Transports that write
+    // synchronously have no queue to jump, so by default this is sendCommand.
+    default void sendPriorityCommand(String robotName, byte[] command, Runnable written) {
+        sendCommand(robotName, command, written);
+    }
+    // Asks for the connection parameters of the mode. Transports that can't
+    // change them leave the connection as it is.
+    default void setPollingMode(String robotName, PollingMode mode) {
+    }
+    // Depth and counters of the robot's outbound command queue, for
+    // /hummingbird/metrics. null for transports that write synchronously.
+    default JsonObject getQueueMetrics(String robotName) {
+        return null;
+    }
     void kill(); //shut down the communicator
     boolean isRunning(); //is this communicator prepared to communicate
 
@@ -1,6 +1,10 @@
 package com.birdbraintechnologies.bluebirdconnector;
 
+import com.google.gson.JsonObject;
+
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class RobotManager {
 
@@ -22,10 +26,13 @@ public class RobotManager {
     
     static final int MAX_LED_PRINT_WORD_LEN = 10;
 
-    private Robot[] selectedRobots = new Robot[3]; //Limit to 3 connections at a time.
+    private final RobotRegistry selectedRobots = new RobotRegistry();
+    private GroupRelease lastGroupRelease = null;
     //Keep a list of where the robot is located. Set to -1 if the robot has disconnected and should reconnect automatically.
     //FIXME: Use a Set for "robots we want to auto-connect", instead of -1's in this map.
     private Hashtable<String, Integer> robotIndexes = new Hashtable<>();
+    //Robots that are connected or connecting, by name. Lock-free lookup for the notification path.
+    private final ConcurrentHashMap<String, Robot> robotsByName = new ConcurrentHashMap<>();
 
     private static RobotManager sharedInstance;
     private RobotCommunicator robotCommunicator;
@@ -165,7 +172,7 @@ public class RobotManager {
 
     public void connectToRobot(String name){
         LOG.debug("connectToRobot {}", name);
-        LOG.debug("currently connected robots: {}, {}, {}", selectedRobots[0], selectedRobots[1], selectedRobots[2]);
+        LOG.debug("currently connected robots: {}", selectedRobots.size());
 
         if (robotCommunicator == null || !robotCommunicator.isRunning()) {
             LOG.error("Requesting robot connection while no communicator is running");
@@ -182,21 +189,19 @@ public class RobotManager {
             }
 
             //Find an open position
-            int index = -1;
-            for (int i = selectedRobots.length; i > 0; i--) {
-                if (selectedRobots[i - 1] == null) {
-                    index = i - 1;
-                }
+            Robot connecting = Robot.Factory(name, robotCommunicator);
+            if (connecting == null) {
+                LOG.error("Unknown robot type for {}.", name);
+                return;
             }
+            int index = selectedRobots.add(connecting);
             if (index == -1) {
                 LOG.error("Max connections already reached! Cannot connect {}.", name);
                 // FIXME: frontend already removed robot from "available" list, should it put it back?
                 return;
             }
-
-            Robot connecting = Robot.Factory(name, robotCommunicator);
-            selectedRobots[index] = connecting;
             robotIndexes.put(name, index);
+            robotsByName.put(name, connecting);
             LOG.debug("Connecting {} at index {}", name, index);
             // FIXME: display connecting robot in GUI
         }
@@ -216,13 +221,34 @@ public class RobotManager {
     }
 
     public Robot getConnectedRobot(char devLetter, String errorMsg){
-        int index = (int)devLetter - 65;
-
-        if (index < 0 || index >= selectedRobots.length || selectedRobots[index] == null || !selectedRobots[index].isConnected()) {
+        Robot robot = selectedRobots.get(devLetter);
+        if (robot == null || !robot.isConnected()) {
             LOG.error("No robot connected at {}. {}", devLetter, errorMsg);
             return null;
         }
-        return selectedRobots[index];
+        return robot;
+    }
+
+    // Counters for every robot in the registry, keyed by device letter.
+    public JsonObject getMetrics() {
+        JsonObject json = new JsonObject();
+        for (int i = 0; i < RobotRegistry.MAX_ROBOTS; i++) {
+            Robot robot = selectedRobots.get(i);
+            if (robot != null) {
+                JsonObject robotJson = robot.metrics.toJson();
+                robotJson.addProperty("name", robot.name);
+                robotJson.addProperty("connected", robot.isConnected());
+                robotJson.addProperty("transport", robot.getTransportName());
+                robotJson.addProperty("pollingMode", robot.demand.getMode().label);
+                robotJson.addProperty("streaming", robot.demand.isStreaming());
+                JsonObject queue = robot.getTransportQueueMetrics();
+                if (queue != null) {
+                    robotJson.add("outboundQueue", queue);
+                }
+                json.add(Utilities.indexToDevLetter(i), robotJson);
+            }
+        }
+        return json;
     }
 
     public void calibrate(String deviceLetter) {
@@ -233,6 +259,8 @@ public class RobotManager {
     public void updateSetAll(char devLetter, int index, byte value) {
         Robot robot = getConnectedRobot(devLetter, "Cannot update setAll.");
         if (robot != null) {
+            robot.cancelRamp("setAll" + index);
+            robot.releaseSetAll(index);
             robot.updateSetAll(index, value);
         }
     }
@@ -251,6 +279,133 @@ public class RobotManager {
         }
     }
 
+    public void startMelody(char devLetter, Melody melody) {
+        Robot robot = getConnectedRobot(devLetter, "Cannot play melody.");
+        if (robot != null) {
+            robot.startMelody(melody);
+        }
+    }
+
+    public void stopMelody(char devLetter) {
+        Robot robot = getConnectedRobot(devLetter, "Cannot stop melody.");
+        if (robot != null) {
+            robot.cancelMelody();
+        }
+    }
+
+    public void startWheelRamp(char devLetter, int left, int right, long durationMs, Ramp.Curve curve) {
+        Robot robot = getConnectedRobot(devLetter, "Cannot ramp wheels.");
+        if (robot != null) {
+            if (!robot.type.equals("FN")) {
+                LOG.error("Wheel ramps need a Finch");
+                return;
+            }
+            robot.startWheelRamp(left, right, durationMs, curve);
+        }
+    }
+
+    // port is a Hummingbird servo/motor port, 1-4
+    public void startServoRamp(char devLetter, int port, int target, long durationMs, Ramp.Curve curve) {
+        Robot robot = getConnectedRobot(devLetter, "Cannot ramp servo.");
+        if (robot != null) {
+            if (robot.type.equals("FN") || port < 1 || port > 4) {
+                LOG.error("Servo port {} does not exist", port);
+                return;
+            }
+            robot.startSetAllRamp(8 + port, target, durationMs, curve); //ports 1-4 are setAll bytes 9-12
+        }
+    }
+
+    public void startController(char devLetter, Controller controller) {
+        Robot robot = getConnectedRobot(devLetter, "Cannot start controller.");
+        if (robot != null) {
+            boolean finch = robot.type.equals("FN");
+            boolean hummingbird = robot.type.equals("HB") || robot.type.equals("BB");
+            if (controller.drivesWheels() && !finch) {
+                LOG.error("Controller output {} needs a Finch", controller.output.label);
+                return;
+            }
+            if (controller.output == Controller.Output.SERVO && !hummingbird) {
+                LOG.error("Controller output {} needs a Hummingbird", controller.output.label);
+                return;
+            }
+            robot.startController(controller);
+        }
+    }
+
+    public void stopController(char devLetter) {
+        Robot robot = getConnectedRobot(devLetter, "Cannot stop controller.");
+        if (robot != null) {
+            robot.stopController();
+        }
+    }
+
+    // Holds the output of each connected robot in devLetters, so that their
+    // next commands can be released together. Returns how many were held.
+    public int holdGroup(String devLetters) {
+        List<Robot> robots = getConnectedRobots(devLetters);
+        for (Robot robot : robots) {
+            robot.holdOutput();
+        }
+        return robots.size();
+    }
+
+    // Releases the robots in devLetters at atMs (wall clock ms, 0 for now).
+    public GroupRelease releaseGroup(String devLetters, long atMs) {
+        GroupRelease release = new GroupRelease(getConnectedRobots(devLetters), atMs);
+        synchronized (this) {
+            lastGroupRelease = release; //for the status report
+        }
+        release.schedule();
+        return release;
+    }
+
+    public synchronized GroupRelease getLastGroupRelease() {
+        return lastGroupRelease;
+    }
+
+    private List<Robot> getConnectedRobots(String devLetters) {
+        List<Robot> robots = new ArrayList<>();
+        for (char devLetter : devLetters.toCharArray()) {
+            Robot robot = getConnectedRobot(devLetter, "Cannot add to group.");
+            if (robot != null && !robots.contains(robot)) {
+                robots.add(robot);
+            }
+        }
+        return robots;
+    }
+
+    // Returns false if no robot is connected at devLetter.
+    public boolean startScript(char devLetter, Script script) {
+        Robot robot = getConnectedRobot(devLetter, "Cannot start script.");
+        if (robot == null) {
+            return false;
+        }
+        robot.startScript(script);
+        return true;
+    }
+
+    public void stopScript(char devLetter) {
+        Robot robot = getConnectedRobot(devLetter, "Cannot stop script.");
+        if (robot != null) {
+            robot.cancelScript();
+        }
+    }
+
+    public void startAnimation(char devLetter, Animation animation) {
+        Robot robot = getConnectedRobot(devLetter, "Cannot start animation.");
+        if (robot != null) {
+            robot.startAnimation(animation);
+        }
+    }
+
+    public void stopAnimations(char devLetter) {
+        Robot robot = getConnectedRobot(devLetter, "Cannot stop animations.");
+        if (robot != null) {
+            robot.cancelAnimations();
+        }
+    }
+
     public void startPrint(char devLetter, char[] charBuf) {
         Robot robot = getConnectedRobot(devLetter, "Cannot start print.");
         if (robot != null) {
@@ -258,10 +413,10 @@ public class RobotManager {
         }
     }
 
-    public void setSymbol(char devLetter, byte[] symbolCommand){
+    public void setSymbol(char devLetter, int pixels){
         Robot robot = getConnectedRobot(devLetter, "Cannot set symbol.");
         if (robot != null) {
-            robot.setSymbol(symbolCommand);
+            robot.setSymbol(pixels);
         }
     }
 
@@ -272,13 +427,49 @@ public class RobotManager {
         }
     }
 
+    public void resetPose(char devLetter) {
+        Robot robot = getConnectedRobot(devLetter, "Cannot reset pose.");
+        if (robot != null && robot.odometry != null) {
+            robot.odometry.reset();
+        }
+    }
+
     public void updateMotors(char devLetter, int speedL, int ticksL, int speedR, int ticksR){
         Robot robot = getConnectedRobot(devLetter, "Cannot update motors.");
         if (robot != null) {
+            //A direct motor command replaces whatever was queued or ramping
+            if (robot.motionQueue != null) {
+                robot.motionQueue.clear();
+            }
+            robot.cancelRamp("wheels");
+            robot.releaseWheels();
             robot.updateMotors(speedL, ticksL, speedR, ticksR);
         }
     }
 
+    public CompletableFuture<Boolean> enqueueMotion(char devLetter, FinchMotion motion) {
+        Robot robot = getConnectedRobot(devLetter, "Cannot queue motion.");
+        if (robot == null || robot.motionQueue == null) {
+            return CompletableFuture.completedFuture(false);
+        }
+        robot.releaseWheels();
+        return robot.motionQueue.enqueue(motion);
+    }
+
+    public void setTrigger(char devLetter, String name, Sensor sensor, SensorTriggers.Op op, int threshold) {
+        Robot robot = getConnectedRobot(devLetter, "Cannot set trigger.");
+        if (robot != null) {
+            robot.triggers.add(name, sensor, op, threshold);
+        }
+    }
+
+    public void removeTrigger(char devLetter, String name) {
+        Robot robot = getConnectedRobot(devLetter, "Cannot remove trigger.");
+        if (robot != null) {
+            robot.triggers.remove(name);
+        }
+    }
+
     public void robotStopAll(char devLetter) {
         Robot robot = getConnectedRobot(devLetter, "Cannot stop all.");
         if (robot != null) {
@@ -286,15 +477,41 @@ public class RobotManager {
         }
     }
 
+    public void setPollingMode(char devLetter, PollingMode mode) {
+        Robot robot = getConnectedRobot(devLetter, "Cannot set polling mode.");
+        if (robot != null) {
+            robot.setPollingMode(mode);
+        }
+    }
+
+    // Stops every connected robot. Returns how many were stopped.
+    public int stopAllRobots() {
+        int count = 0;
+        for (Robot robot : selectedRobots.getAll()) {
+            if (robot.isConnected()) {
+                robot.stopAll();
+                count++;
+            }
+        }
+        LOG.debug("Stopped {} robots", count);
+        return count;
+    }
+
     public void close(){
         if(robotCommunicator != null) {
             robotCommunicator.kill();
         }
     }
 
+    // Called by the communicators for every sensor frame. The bytes are only
+    // valid for the duration of the call; transports may reuse the buffer.
     public void receiveNotification(String robotName, byte[] bytes, Short rssi) {
-        Robot robot = getRobotByName(robotName);
-        if (robot != null) { robot.receiveNotification(bytes, rssi); }
+        Robot robot = robotsByName.get(robotName);
+        if (robot != null) {
+            robot.receiveNotification(bytes, rssi);
+        } else {
+            LOG.error("{} not found in selectedRobots.", robotName);
+        }
     }
     public void receiveScanResponse(String robotName) {
         Integer index = robotIndexes.get(robotName);
@@ -310,7 +527,7 @@ public class RobotManager {
             LOG.error("{} not found in selectedRobots.", robotName);
             return;
         }
-        Robot robot = selectedRobots[index];
+        Robot robot = selectedRobots.get(index);
         robot.setHasV2(hasV2);
         robot.setConnected(true);
         LOG.debug("receiveConnectionEvent {} {} {}", robotName, hasV2, rssi);
@@ -333,7 +550,7 @@ public class RobotManager {
     //   reconnect immediately if this robot is discovered later.
     //   - Also start discovery, in the hopes the robot gets discovered again.
     // Permanent disconnections, i.e. user initiated disconnection...
-    //   - Remove robot's index position (corresponding to 'A', 'B', or 'C'). If
+    //   - Remove robot's index position (corresponding to 'A', 'B', 'C'...). If
     //     robot is discovered later, it goes into the "available robots" list.
     //   - Do NOT start discovery, since the user didn't ask for it.
     // FIXME: Permenent should perhaps distinguish two cases:
@@ -346,8 +563,9 @@ public class RobotManager {
             LOG.error("{} not found in selectedRobots.", robotName);
             return;
         }
-        Robot robot = selectedRobots[index];
-        selectedRobots[index] = null;
+        Robot robot = selectedRobots.get(index);
+        selectedRobots.remove(index, robot, !permanent);
+        robotsByName.remove(robotName, robot);
         robot.setConnected(false);
         if (permanent) {
             robotIndexes.remove(robotName);
@@ -361,13 +579,4 @@ public class RobotManager {
         }
     }
 
-    private Robot getRobotByName(String name) {
-        Integer index = robotIndexes.get(name);
-        if (index == null || index == -1) {
-            LOG.error("{} not found in selectedRobots.", name);
-            return null;
-        }
-        return selectedRobots[index];
-    }
-
 }
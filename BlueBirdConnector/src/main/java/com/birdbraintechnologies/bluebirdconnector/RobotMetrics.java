@@ -0,0 +1,47 @@
+package com.birdbraintechnologies.bluebirdconnector;
+
+import com.google.gson.JsonObject;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// Per-robot counters, reported by /hummingbird/metrics. Updated from the
+// SetAllThread and the notification path, so everything here is lock-free.
+public class RobotMetrics {
+
+    public final AtomicLong commandsSent = new AtomicLong();
+    public final AtomicLong writesSuppressed = new AtomicLong();
+    public final AtomicLong notificationsReceived = new AtomicLong();
+    public final AtomicLong notificationsDuplicate = new AtomicLong();
+    public final AtomicLong stopsSent = new AtomicLong();
+    public final AtomicLong streamPauses = new AtomicLong();
+
+    // Actuator path: HTTP request entry -> SetAllThread dispatch -> write
+    // completed by the transport. Commands sent straight from the request
+    // thread have a dispatch stage of roughly zero.
+    public final LatencyHistogram requestToDispatch = new LatencyHistogram();
+    public final LatencyHistogram dispatchToWrite = new LatencyHistogram();
+    public final LatencyHistogram requestToWrite = new LatencyHistogram();
+    // Stop-all path: HTTP request entry -> stop command written. This is the
+    // bound the priority lane is meant to keep small.
+    public final LatencyHistogram stopToWrite = new LatencyHistogram();
+    // Sensor path: arrival of the latest frame -> HTTP response that read it
+    public final LatencyHistogram frameToResponse = new LatencyHistogram();
+
+    public JsonObject toJson() {
+        JsonObject json = new JsonObject();
+        json.addProperty("commandsSent", commandsSent.get());
+        json.addProperty("writesSuppressed", writesSuppressed.get());
+        json.addProperty("notificationsReceived", notificationsReceived.get());
+        json.addProperty("notificationsDuplicate", notificationsDuplicate.get());
+        json.addProperty("stopsSent", stopsSent.get());
+        json.addProperty("streamPauses", streamPauses.get());
+        JsonObject latency = new JsonObject();
+        latency.add("requestToDispatch", requestToDispatch.toJson());
+        latency.add("dispatchToWrite", dispatchToWrite.toJson());
+        latency.add("requestToWrite", requestToWrite.toJson());
+        latency.add("stopToWrite", stopToWrite.toJson());
+        latency.add("frameToResponse", frameToResponse.toJson());
+        json.add("latency", latency);
+        return json;
+    }
+}
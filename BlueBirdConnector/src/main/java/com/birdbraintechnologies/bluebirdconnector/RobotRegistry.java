@@ -0,0 +1,90 @@
+package com.birdbraintechnologies.bluebirdconnector;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// Connected (or connecting) robots by position. Position 0 is device 'A'; see
+// Utilities.indexToDevLetter for the full letter mapping. Lookups by position
+// or letter are lock-free, so the servlet threads never wait on a connection
+// being set up. Assignment is sticky: a robot that drops out and comes back
+// gets its old letter again if nobody has taken it in the meantime, so a
+// running Snap project keeps talking to the same robot. A robot the user
+// disconnects gives up its claim, so the next robot gets the lowest free
+// letter as usual.
+public class RobotRegistry {
+    static final Log LOG = Log.getLogger(RobotRegistry.class);
+
+    public static final int MAX_ROBOTS = Utilities.MAX_DEV_LETTERS;
+
+    private final AtomicReferenceArray<Robot> slots = new AtomicReferenceArray<>(MAX_ROBOTS);
+    private final Map<String, Integer> lastIndex = new HashMap<>(); // guarded by this
+    private int count = 0; // guarded by this
+
+    // Returns the position given to the robot, or -1 if every position is taken.
+    public synchronized int add(Robot robot) {
+        if (count >= MAX_ROBOTS) {
+            return -1;
+        }
+        Integer previous = lastIndex.get(robot.name);
+        int index = -1;
+        if (previous != null && slots.get(previous) == null) {
+            index = previous;
+        } else {
+            // Lowest free position that no other robot has a claim on, if there
+            // is one, otherwise just the lowest free position.
+            for (int i = 0; i < MAX_ROBOTS; i++) {
+                if (slots.get(i) == null) {
+                    if (index == -1) { index = i; }
+                    if (!lastIndex.containsValue(i)) {
+                        index = i;
+                        break;
+                    }
+                }
+            }
+        }
+        slots.set(index, robot);
+        lastIndex.put(robot.name, index);
+        count++;
+        return index;
+    }
+
+    // keepClaim holds the position for the robot's return (autoreconnect).
+    public synchronized void remove(int index, Robot robot, boolean keepClaim) {
+        if (slots.compareAndSet(index, robot, null)) {
+            count--;
+        }
+        if (!keepClaim) {
+            lastIndex.remove(robot.name, index);
+        }
+    }
+
+    public Robot get(int index) {
+        if (index < 0 || index >= MAX_ROBOTS) {
+            return null;
+        }
+        return slots.get(index);
+    }
+
+    public Robot get(char devLetter) {
+        return get(Utilities.devLetterToIndex(devLetter));
+    }
+
+    public synchronized int size() {
+        return count;
+    }
+
+    // Snapshot of the current robots, in position order.
+    public List<Robot> getAll() {
+        List<Robot> robots = new ArrayList<>();
+        for (int i = 0; i < MAX_ROBOTS; i++) {
+            Robot robot = slots.get(i);
+            if (robot != null) {
+                robots.add(robot);
+            }
+        }
+        return robots;
+    }
+}
@@ -0,0 +1,31 @@
+package com.birdbraintechnologies.bluebirdconnector;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Shared scheduler for timed robot output (LED printing and the like), so
+// that timed work is a cheap scheduled task instead of a sleeping thread per
+// robot. Cancelled tasks are dropped from the queue right away.
+// Tasks must be short and must never block.
+public class RobotScheduler {
+
+    private static final int THREADS = 2;
+
+    private static ScheduledThreadPoolExecutor sharedInstance;
+
+    public static synchronized ScheduledExecutorService getSharedInstance() {
+        if (sharedInstance == null) {
+            AtomicInteger count = new AtomicInteger();
+            ThreadFactory factory = (r) -> {
+                Thread t = new Thread(r, "RobotScheduler-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            };
+            sharedInstance = new ScheduledThreadPoolExecutor(THREADS, factory);
+            sharedInstance.setRemoveOnCancelPolicy(true);
+        }
+        return sharedInstance;
+    }
+}
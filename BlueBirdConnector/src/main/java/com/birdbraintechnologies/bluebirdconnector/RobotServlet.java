@@ -1,5 +1,7 @@
 package com.birdbraintechnologies.bluebirdconnector;
 
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.ServletOutputStream;
 import jakarta.servlet.http.HttpServlet;
@@ -12,6 +14,7 @@ import java.io.StringWriter;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 
 import static com.birdbraintechnologies.bluebirdconnector.RobotManager.*;
@@ -28,20 +31,72 @@ public class RobotServlet extends HttpServlet {
 
     static final String hIn = "/hummingbird/in/";
     static final String hOut = "/hummingbird/out/";
+    static final String hMetrics = "/hummingbird/metrics";
+    static final String hScript = "/hummingbird/script/";
+    static final String hGroup = "/hummingbird/group/";
 
     //protected DeviceIdObj deviceIdObj = new DeviceIdObj();
     //long startTime = 0;
 
     //byte [] buzzerCommand = new byte [5];  // not used in favor of SetAll array
 
-    byte [] symbolCommand = new byte [6];
     byte [] clearLED = new byte [] {(byte)0xCC, (byte)0x00, (byte)0xFF, (byte)0xFF, (byte)0xFF};  // This shouldn't be needed
     byte [] stopAllCommand = new byte [4];
 
+    //Long-poll limits for the wait* requests
+    static final long DEFAULT_WAIT_MS = 10000;
+    static final long MAX_WAIT_MS = 60000;
+
+    static final int MAX_SCRIPT_BYTES = 256 * 1024;
+
 
 
 
     protected void doGet(HttpServletRequest httpServletRequest, HttpServletResponse httpServletResponse) throws ServletException, IOException
+    {
+        //Robot updates made while handling the request are traced from here
+        RequestTrace.begin();
+        try {
+            handleGet(httpServletRequest, httpServletResponse);
+        } finally {
+            RequestTrace.end();
+        }
+    }
+
+    // POST /hummingbird/script/<devLetter> with a Script as the body
+    protected void doPost(HttpServletRequest httpServletRequest, HttpServletResponse httpServletResponse) throws ServletException, IOException
+    {
+        ServletOutputStream out = httpServletResponse.getOutputStream();
+        httpServletResponse.setContentType("text/plain");
+        String uri = httpServletRequest.getRequestURI();
+        LOG.debug("POST Request URI = {}" , uri);
+
+        if (!uri.startsWith(hScript) || uri.length() != hScript.length() + 1) {
+            LOG.error("Invalid hummingbird POST URL: " + uri);
+            out.print("404");
+            return;
+        }
+        char devLetter = uri.charAt(hScript.length());
+
+        byte[] body = httpServletRequest.getInputStream().readNBytes(MAX_SCRIPT_BYTES + 1);
+        if (body.length > MAX_SCRIPT_BYTES) {
+            httpServletResponse.setStatus(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+            out.print("Script too large");
+            return;
+        }
+        Script script;
+        try {
+            script = Script.parse(new String(body, StandardCharsets.UTF_8));
+        } catch (IllegalArgumentException e) {
+            LOG.error("HummingbirdServelet script Error: {}", e.getMessage());
+            httpServletResponse.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            out.print(e.getMessage());
+            return;
+        }
+        out.print(robotManager.startScript(devLetter, script) ? "200" : "Not Connected");
+    }
+
+    private void handleGet(HttpServletRequest httpServletRequest, HttpServletResponse httpServletResponse) throws ServletException, IOException
     {
         ServletOutputStream out = httpServletResponse.getOutputStream();
         httpServletResponse.setContentType("text/plain");
@@ -122,10 +177,40 @@ public class RobotServlet extends HttpServlet {
                 out.print("Not Connected");
                 return;
             }
+            //Restarts the sensor stream if it was idle
+            robot.demand.awaitSensorData();
+            //Every value in the response comes from the same frame
+            SensorSnapshot snapshot = robot.getSnapshot();
 
             byte b;
             float g;
             switch (params[0]) {
+                case "frameSequence": //goes up each time the robot's data changes
+                    out.print(String.valueOf(snapshot.sequence));
+                    break;
+                case "frameAge": //ms since the latest frame, identical or not
+                    out.print(String.valueOf(getFrameAgeMs(robot)));
+                    break;
+                case "frame": //the whole frame at once, or nothing if ?since= is still current
+                    {
+                        httpServletResponse.setContentType("application/json");
+                        JsonObject json = new JsonObject();
+                        json.addProperty("sequence", snapshot.sequence);
+                        json.addProperty("ageMs", getFrameAgeMs(robot));
+                        json.addProperty("changedAgeMs", snapshot.receivedNanos == 0 ? -1 :
+                                (System.nanoTime() - snapshot.receivedNanos) / 1000000);
+                        if (getLongParameter(httpServletRequest, "since", -1) == snapshot.sequence) {
+                            json.addProperty("unchanged", true);
+                        } else {
+                            JsonArray data = new JsonArray();
+                            for (int i = 0; i < snapshot.length(); i++) {
+                                data.add(snapshot.getUInt(i));
+                            }
+                            json.add("data", data);
+                        }
+                        out.print(json.toString());
+                    }
+                    break;
                 case "isMicrobit":
                     if (robot.type.equals("MB")) { out.print("true");
                     } else { out.print("false"); }
@@ -143,10 +228,10 @@ public class RobotServlet extends HttpServlet {
                     if (params[1].equals("static"))  {
                         int val;
                         if (robot.hasV2) {
-                            val = robot.getNotificationDataUInt(1); //value already in cm
+                            val = snapshot.getUInt(1); //value already in cm
                         } else {
-                            int msb = robot.getNotificationDataUInt(0); //convert signed byte to unsigned 8 bit int
-                            int lsb = robot.getNotificationDataUInt(1);
+                            int msb = snapshot.getUInt(0); //convert signed byte to unsigned 8 bit int
+                            int lsb = snapshot.getUInt(1);
                             val = (int) Math.round(((msb << 8) + lsb) * 0.0919); //return the value in cm
                         }
                         value = Integer.toString(val);
@@ -206,7 +291,7 @@ public class RobotServlet extends HttpServlet {
                     else //Send value of data as response
                         int v = Integer.parseInt(value);*/
 
-                    int v = robot.getNotificationDataUInt(index);
+                    int v = snapshot.getUInt(index);
                     value = String.valueOf(v);
                     if ((v > 230) && (params[0].equals("Dial"))) {
                         out.print("230");
@@ -242,9 +327,9 @@ public class RobotServlet extends HttpServlet {
                     index = 7;
                     if (params[1].equals("Right")) index = 10;
 
-                    int msb = robot.getNotificationDataUInt(index);
-                    int ssb = robot.getNotificationDataUInt( (index+1) );
-                    int lsb = robot.getNotificationDataUInt( (index+2) );
+                    int msb = snapshot.getUInt(index);
+                    int ssb = snapshot.getUInt( (index+1) );
+                    int lsb = snapshot.getUInt( (index+2) );
 
                     int unsigned = (msb << 16) + (ssb << 8) + lsb;
                     int signed = (unsigned << 8) >> 8;
@@ -253,6 +338,43 @@ public class RobotServlet extends HttpServlet {
                     out.print(Double.toString(rotations));
                     //out.print(Integer.toString(signed));
                     break;
+                case "pose": //finch only, dead reckoning from the encoders
+                    if (robot.odometry == null) {
+                        out.print("Not a Finch");
+                        break;
+                    }
+                    switch (params[1]) {
+                        case "X":
+                            out.print(roundToString(robot.odometry.getX()));
+                            break;
+                        case "Y":
+                            out.print(roundToString(robot.odometry.getY()));
+                            break;
+                        case "Heading":
+                            out.print(roundToString(robot.odometry.getHeadingDegrees()));
+                            break;
+                        default:
+                            LOG.error("Pose value does not exist at given input {}", parameterPath);
+                            out.print("Error");
+                    }
+                    break;
+                case "velocity": //finch only
+                    if (robot.odometry == null) {
+                        out.print("Not a Finch");
+                        break;
+                    }
+                    switch (params[1]) {
+                        case "Linear": //cm/s
+                            out.print(roundToString(robot.odometry.getLinearVelocity()));
+                            break;
+                        case "Angular": //degrees/s, counterclockwise positive
+                            out.print(roundToString(robot.odometry.getAngularVelocityDegrees()));
+                            break;
+                        default:
+                            LOG.error("Velocity value does not exist at given input {}", parameterPath);
+                            out.print("Error");
+                    }
+                    break;
                 case "Accelerometer" :
                     int xIndex = 4;
                     if (robot.type.equals("FN")) { xIndex = 13; }
@@ -278,22 +400,22 @@ public class RobotServlet extends HttpServlet {
                         return;  //To user
                     }
 
-                    b = robot.getNotificationDataByte(index);
+                    b = snapshot.getByte(index);
                     g = getGravity(b);
                     out.print(roundToString(g * (float)9.8));  //gravity expressed in 9.8 ms/s
                     break;
                 case "finchAccel": //accelerometer values in finch reference frame
-                    double accel = getFinchAcceleration(params[1], devLetter);
+                    double accel = getFinchAcceleration(params[1], snapshot);
                     g = getGravity(accel);
                     out.print(roundToString(g * (float)9.8));  //gravity expressed in 9.8 ms/s
                     break;
                 case "finchMag":
-                    double magVal = getFinchMagnetometer(params[1], devLetter);
+                    double magVal = getFinchMagnetometer(params[1], snapshot);
                     int mv = (int)Math.round(magVal);
                     out.print(String.valueOf(mv));
                     break;
                 case "finchCompass":
-                    int headingDeg = (int) Math.round(rawToCompass(devLetter, robot.type, true));
+                    int headingDeg = (int) Math.round(robot.orientation.getHeading(true));
                     headingDeg = (headingDeg + 180) % 360; //turn it around so that the finch beak points north at 0
                     LOG.debug("Rounded Finch Compass Heading: {}", headingDeg);
                     out.print(String.valueOf(headingDeg));
@@ -318,21 +440,21 @@ public class RobotServlet extends HttpServlet {
                                 out.print(value);
                                 return;
                         }
-                        magValue = (short)robot.getNotificationDataByte(index);
+                        magValue = (short)snapshot.getByte(index);
                         LOG.debug("Finch magnetometer {} value: {}", params[1], magValue);
                     } else {
 
                         switch (params[1]) { //XYZ number to byte mapping
                             case "X":
-                                magValue = bytes2short(8, 9, devLetter);
+                                magValue = bytes2short(8, 9, snapshot);
                                 LOG.debug("Magnetometer X value: {}", magValue);
                                 break;
                             case "Y":
-                                magValue = bytes2short(10, 11, devLetter);
+                                magValue = bytes2short(10, 11, snapshot);
                                 LOG.debug("Magnetometer Y value: {}", magValue);
                                 break;
                             case "Z":
-                                magValue = bytes2short(12, 13, devLetter);
+                                magValue = bytes2short(12, 13, snapshot);
                                 LOG.debug("Magnetometer Z value: {}", magValue);
                                 break;
                             case "All":
@@ -356,7 +478,7 @@ public class RobotServlet extends HttpServlet {
                     if (robot.type.equals("FN")) { index = 16; }
 
                     //byte buttonState = (byte)(ScratchME.blueBirdDriver.getNotificationDataByte(index, devLetter) & (byte)0xF0); //Button Byte position = 7, clear LS bits as it is for shake and calibrate
-                    byte buttonState = robot.getNotificationDataByte(index);
+                    byte buttonState = snapshot.getByte(index);
 
                     //Get the button letter
                     String buttonLetter = params[1].toUpperCase();
@@ -410,12 +532,12 @@ public class RobotServlet extends HttpServlet {
                         if (sensor.equals("SOUND")) {
                             index = 14;
                             if (robot.type.equals("FN")) { index = 0; }
-                            int sound = robot.getNotificationDataUInt(index);
+                            int sound = snapshot.getUInt(index);
                             out.print(String.valueOf(sound));
                         } else if (sensor.equals("TEMPERATURE")) {
-                            int temp = robot.getNotificationDataUInt(15);
+                            int temp = snapshot.getUInt(15);
                             if (robot.type.equals("FN")) {
-                                temp = robot.getNotificationDataUInt(6);
+                                temp = snapshot.getUInt(6);
                                 temp = temp >> 2;
                             }
                             out.print(String.valueOf(temp));
@@ -427,42 +549,42 @@ public class RobotServlet extends HttpServlet {
                 case "finchOrientation" :
                     switch (params[1]) {
                         case "Tilt%20Right":   //X axis
-                            g = getGravity(getFinchAcceleration("X", devLetter));
+                            g = (float) robot.orientation.getFinchGravity(0);
                             if (g > 0.8)
                                 out.print("true");
                             else
                                 out.print("false");
                             break;
                         case "Tilt%20Left":
-                            g = getGravity(getFinchAcceleration("X", devLetter));
+                            g = (float) robot.orientation.getFinchGravity(0);
                             if (g < -0.8)
                                 out.print("true");
                             else
                                 out.print("false");
                             break;
                         case "Beak%20Down":     // Y axis
-                            g = getGravity(getFinchAcceleration("Y", devLetter));
+                            g = (float) robot.orientation.getFinchGravity(1);
                             if (g < -0.8)
                                 out.print("true");
                             else
                                 out.print("false");
                             break;
                         case "Beak%20Up":
-                            g = getGravity(getFinchAcceleration("Y", devLetter));
+                            g = (float) robot.orientation.getFinchGravity(1);
                             if (g > 0.8)
                                 out.print("true");
                             else
                                 out.print("false");
                             break;
                         case "Level":     // Z axis
-                            g = getGravity(getFinchAcceleration("Z", devLetter));
+                            g = (float) robot.orientation.getFinchGravity(2);
                             if (g < -0.8)
                                 out.print("true");
                             else
                                 out.print("false");
                             break;
                         case "Upside%20Down":
-                            g = getGravity(getFinchAcceleration("Z", devLetter));
+                            g = (float) robot.orientation.getFinchGravity(2);
                             if (g > 0.8)
                                 out.print("true");
                             else
@@ -470,7 +592,7 @@ public class RobotServlet extends HttpServlet {
                             break;
                         case "Shake":
                             index = 16; //Button/shake Byte position = 16 for finch
-                            b = robot.getNotificationDataByte(index);
+                            b = snapshot.getByte(index);
                             byte shakebyte = (byte) (b & 0x01); //LSB is shake T/F
                             if (shakebyte > 0)
                                 out.print("true");
@@ -483,58 +605,45 @@ public class RobotServlet extends HttpServlet {
                     break;
                 case "orientation" :
 
-                    int accXindex = 4;
-                    if (robot.type.equals("FN")) { accXindex = 13; }
+                    //Filtered gravity, so a single noisy frame doesn't flip the answer
                     switch (params[1]) { //XYZ number to byte mapping
                         case "Tilt%20Left":   //X axis
-                            index = accXindex;
-                            b = robot.getNotificationDataByte(index);
-                            g = getGravity(b);
+                            g = (float) robot.orientation.getGravity(0);
                             if (g > 0.8)
                                 out.print("true");
                             else
                                 out.print("false");
                             break;
                         case "Tilt%20Right":
-                            index = accXindex;
-                            b = robot.getNotificationDataByte(index);
-                            g = getGravity(b);
+                            g = (float) robot.orientation.getGravity(0);
                             if (g < -0.8)
                                 out.print("true");
                             else
                                 out.print("false");
                             break;
                         case "Logo%20Up":     // Y axis
-                            index = accXindex + 1;
-                            b = robot.getNotificationDataByte(index);
-                            g = getGravity(b);
+                            g = (float) robot.orientation.getGravity(1);
                             if (g < -0.8)
                                 out.print("true");
                             else
                                 out.print("false");
                             break;
                         case "Logo%20Down":
-                            index = accXindex + 1;
-                            b = robot.getNotificationDataByte(index);
-                            g = getGravity(b);
+                            g = (float) robot.orientation.getGravity(1);
                             if (g > 0.8)
                                 out.print("true");
                             else
                                 out.print("false");
                             break;
                         case "Screen%20Up":     // Z axis
-                            index = accXindex + 2;
-                            b = robot.getNotificationDataByte(index);
-                            g = getGravity(b);
+                            g = (float) robot.orientation.getGravity(2);
                             if (g < -0.8)
                                 out.print("true");
                             else
                                 out.print("false");
                             break;
                         case "Screen%20Down":
-                            index = accXindex + 2;
-                            b = robot.getNotificationDataByte(index);
-                            g = getGravity(b);
+                            g = (float) robot.orientation.getGravity(2);
                             if (g > 0.8)
                                 out.print("true");
                             else
@@ -545,7 +654,7 @@ public class RobotServlet extends HttpServlet {
                             index = 7; //Button/shake Byte position = 7
                             if (robot.type.equals("FN")) { index = 16; }
 
-                            b = robot.getNotificationDataByte(index);
+                            b = snapshot.getByte(index);
                             byte shakebyte = (byte)(b & 0x01); //LSB is shake T/F
                             if (shakebyte > 0)
                                 out.print("true");
@@ -562,7 +671,7 @@ public class RobotServlet extends HttpServlet {
                     try {
                         LOG.debug("Compass algorithm:");
                         //round the double and convert to int
-                        int headingDegrees = (int) Math.round(rawToCompass(devLetter, robot.type, false));
+                        int headingDegrees = (int) Math.round(robot.orientation.getHeading(false));
 
                         LOG.debug("Rounded Compass Heading: {}", headingDegrees);
                         out.print(String.valueOf(headingDegrees));
@@ -570,8 +679,30 @@ public class RobotServlet extends HttpServlet {
                         LOG.warn("HummingbirdServelet Compass Error: Usually this occurs when notifications are not enabled. {}", Utilities.stackTraceToString(e));
                     }
                     break;
+                case "attitude": //filtered pitch, roll and compass heading in degrees
+                    switch (params[1]) {
+                        case "Pitch":
+                            out.print(roundToString(robot.orientation.getPitch()));
+                            break;
+                        case "Roll":
+                            out.print(roundToString(robot.orientation.getRoll()));
+                            break;
+                        case "Heading":
+                            if (robot.type.equals("FN")) {
+                                //as finchCompass: the beak points north at 0
+                                int finchHeading = (int) Math.round(robot.orientation.getHeading(true));
+                                out.print(String.valueOf((finchHeading + 180) % 360));
+                            } else {
+                                out.print(String.valueOf(Math.round(robot.orientation.getHeading(false))));
+                            }
+                            break;
+                        default:
+                            LOG.error("Attitude value does not exist at given input {}", parameterPath);
+                            out.print("Error");
+                    }
+                    break;
                 case "finchIsMoving":
-                    byte data = robot.getNotificationDataByte(4);
+                    byte data = snapshot.getByte(4);
                     boolean finchIsMoving = (data < 0);
                     LOG.debug("finchIsMoving {} from {}", finchIsMoving, data);
                     if (finchIsMoving) {
@@ -580,10 +711,130 @@ public class RobotServlet extends HttpServlet {
                         out.print("false");
                     }
                     break;
+                case "latch": //read-and-clear values latched since the previous read
+                    switch (params[1]) {
+                        case "ButtonA":
+                            out.print(String.valueOf(robot.latches.readButtonA()));
+                            break;
+                        case "ButtonB":
+                            out.print(String.valueOf(robot.latches.readButtonB()));
+                            break;
+                        case "Logo":
+                            if (!robot.hasV2) {
+                                out.print("micro:bit V2 required");
+                            } else {
+                                out.print(String.valueOf(robot.latches.readButtonLogo()));
+                            }
+                            break;
+                        case "PeakSound":
+                            if (!robot.hasV2) {
+                                out.print("micro:bit V2 required");
+                            } else {
+                                out.print(String.valueOf(robot.latches.readPeakSound()));
+                            }
+                            break;
+                        case "PeakAcceleration":
+                            out.print(roundToString(robot.latches.readPeakAcceleration()));
+                            break;
+                        case "ShakeCount":
+                            out.print(String.valueOf(robot.latches.readShakeCount()));
+                            break;
+                        default:
+                            LOG.error("Latch does not exist at given input {}", parameterPath);
+                            out.print("Error");
+                    }
+                    break;
+                case "waitForMotion": //long-poll until all queued finch motion is done
+                    if (robot.motionQueue == null) {
+                        out.print("false");
+                        break;
+                    }
+                    try {
+                        long timeout = getLongParameter(httpServletRequest, "timeout", DEFAULT_WAIT_MS);
+                        timeout = Math.max(0, Math.min(MAX_WAIT_MS, timeout));
+                        out.print(String.valueOf(robot.motionQueue.awaitIdle(timeout)));
+                    } catch (InterruptedException e) {
+                        LOG.debug("waitForMotion interrupted: {}", e.toString());
+                        out.print("false");
+                    }
+                    break;
+                case "waitForPrint": //long-poll until the current LED print has scrolled by
+                    try {
+                        long timeout = getLongParameter(httpServletRequest, "timeout", DEFAULT_WAIT_MS);
+                        timeout = Math.max(0, Math.min(MAX_WAIT_MS, timeout));
+                        out.print(String.valueOf(robot.awaitPrint(timeout)));
+                    } catch (InterruptedException e) {
+                        LOG.debug("waitForPrint interrupted: {}", e.toString());
+                        out.print("false");
+                    }
+                    break;
+                case "waitForMelody": //long-poll until the current melody has played
+                    try {
+                        long timeout = getLongParameter(httpServletRequest, "timeout", DEFAULT_WAIT_MS);
+                        timeout = Math.max(0, Math.min(MAX_WAIT_MS, timeout));
+                        out.print(String.valueOf(robot.awaitMelody(timeout)));
+                    } catch (InterruptedException e) {
+                        LOG.debug("waitForMelody interrupted: {}", e.toString());
+                        out.print("false");
+                    }
+                    break;
+                case "controllerStatus": {
+                    Controller controller = robot.getController();
+                    httpServletResponse.setContentType("application/json");
+                    JsonObject status = (controller == null) ? new JsonObject() : controller.getStatus();
+                    status.addProperty("enabled", controller != null);
+                    out.print(status.toString());
+                    break;
+                }
+                case "scriptStatus": {
+                    ScriptRun run = robot.getScriptRun();
+                    httpServletResponse.setContentType("application/json");
+                    out.print(run == null ? "{\"state\":\"idle\"}" : run.getStatus().toString());
+                    break;
+                }
+                case "waitForScript": //long-poll until the current script ends
+                    try {
+                        long timeout = getLongParameter(httpServletRequest, "timeout", DEFAULT_WAIT_MS);
+                        timeout = Math.max(0, Math.min(MAX_WAIT_MS, timeout));
+                        ScriptRun run = robot.getScriptRun();
+                        out.print(String.valueOf(run != null && run.await(timeout)));
+                    } catch (InterruptedException e) {
+                        LOG.debug("waitForScript interrupted: {}", e.toString());
+                        out.print("false");
+                    }
+                    break;
+                case "motionQueueLength":
+                    out.print(robot.motionQueue == null ? "0" : String.valueOf(robot.motionQueue.size()));
+                    break;
+                case "waitTrigger": //long-poll until the named trigger fires
+                    try {
+                        long timeout = getLongParameter(httpServletRequest, "timeout", DEFAULT_WAIT_MS);
+                        timeout = Math.max(0, Math.min(MAX_WAIT_MS, timeout));
+                        long since = getLongParameter(httpServletRequest, "since", -1);
+                        long count = robot.triggers.await(params[1], since, timeout);
+                        out.print(count >= 0 ? "true" : "false");
+                    } catch (InterruptedException e) {
+                        LOG.debug("waitTrigger interrupted: {}", e.toString());
+                        out.print("false");
+                    }
+                    break;
+                case "triggerCount":
+                    SensorTriggers.Trigger trigger = robot.triggers.get(params[1]);
+                    if (trigger == null) {
+                        out.print("No trigger " + params[1]);
+                    } else {
+                        out.print(String.valueOf(trigger.getFireCount()));
+                    }
+                    break;
                 default:
                     LOG.debug("Unknown device");
                     break;
             }
+            //Long-polls wait on purpose, so they would only skew the distribution
+            long frameNs = robot.getLastFrameNanos();
+            if (frameNs != 0 && !params[0].startsWith("wait")) {
+                robot.metrics.frameToResponse.record(System.nanoTime() - frameNs);
+            }
         } else if (uri.startsWith(hOut)) {
 
             LOG.debug("Outgoing hummingbird command");
@@ -815,45 +1066,14 @@ public class RobotServlet extends HttpServlet {
                             // kill the print thread (if it exists).
                             //killPrintThread();
 
-                            //Set up patern based on params.
-                        symbolCommand[0] = (byte) 0xCC;
-                        symbolCommand[1] = (byte) 0x80;
-
-                        symbolCommand[2] = params[26].equals("true") ? (byte) (symbolCommand[2] | (1 << 0)) : (byte) (symbolCommand[2] & ~(1 << 0)); //25
-
-                        symbolCommand[3] = params[25].equals("true") ? (byte) (symbolCommand[3] | (1 << 7)) : (byte) (symbolCommand[3] & ~(1 << 7)); //24
-                        symbolCommand[3] = params[24].equals("true") ? (byte) (symbolCommand[3] | (1 << 6)) : (byte) (symbolCommand[3] & ~(1 << 6)); //24
-                        symbolCommand[3] = params[23].equals("true") ? (byte) (symbolCommand[3] | (1 << 5)) : (byte) (symbolCommand[3] & ~(1 << 5)); //24
-                        symbolCommand[3] = params[22].equals("true") ? (byte) (symbolCommand[3] | (1 << 4)) : (byte) (symbolCommand[3] & ~(1 << 4)); //24
-                        symbolCommand[3] = params[21].equals("true") ? (byte) (symbolCommand[3] | (1 << 3)) : (byte) (symbolCommand[3] & ~(1 << 3)); //24
-                        symbolCommand[3] = params[20].equals("true") ? (byte) (symbolCommand[3] | (1 << 2)) : (byte) (symbolCommand[3] & ~(1 << 2)); //24
-                        symbolCommand[3] = params[19].equals("true") ? (byte) (symbolCommand[3] | (1 << 1)) : (byte) (symbolCommand[3] & ~(1 << 1)); //24
-                        symbolCommand[3] = params[18].equals("true") ? (byte) (symbolCommand[3] | (1 << 0)) : (byte) (symbolCommand[3] & ~(1 << 0)); //24
-
-                        symbolCommand[4] = params[17].equals("true") ? (byte) (symbolCommand[4] | (1 << 7)) : (byte) (symbolCommand[4] & ~(1 << 7)); //24
-                        symbolCommand[4] = params[16].equals("true") ? (byte) (symbolCommand[4] | (1 << 6)) : (byte) (symbolCommand[4] & ~(1 << 6)); //24
-                        symbolCommand[4] = params[15].equals("true") ? (byte) (symbolCommand[4] | (1 << 5)) : (byte) (symbolCommand[4] & ~(1 << 5)); //24
-                        symbolCommand[4] = params[14].equals("true") ? (byte) (symbolCommand[4] | (1 << 4)) : (byte) (symbolCommand[4] & ~(1 << 4)); //24
-                        symbolCommand[4] = params[13].equals("true") ? (byte) (symbolCommand[4] | (1 << 3)) : (byte) (symbolCommand[4] & ~(1 << 3)); //24
-                        symbolCommand[4] = params[12].equals("true") ? (byte) (symbolCommand[4] | (1 << 2)) : (byte) (symbolCommand[4] & ~(1 << 2)); //24
-                        symbolCommand[4] = params[11].equals("true") ? (byte) (symbolCommand[4] | (1 << 1)) : (byte) (symbolCommand[4] & ~(1 << 1)); //24
-                        symbolCommand[4] = params[10].equals("true") ? (byte) (symbolCommand[4] | (1 << 0)) : (byte) (symbolCommand[4] & ~(1 << 0)); //24
-
-
-                        symbolCommand[5] = params[9].equals("true") ? (byte) (symbolCommand[5] | (1 << 7)) : (byte) (symbolCommand[5] & ~(1 << 7)); //24
-                        symbolCommand[5] = params[8].equals("true") ? (byte) (symbolCommand[5] | (1 << 6)) : (byte) (symbolCommand[5] & ~(1 << 6)); //24
-                        symbolCommand[5] = params[7].equals("true") ? (byte) (symbolCommand[5] | (1 << 5)) : (byte) (symbolCommand[5] & ~(1 << 5)); //24
-                        symbolCommand[5] = params[6].equals("true") ? (byte) (symbolCommand[5] | (1 << 4)) : (byte) (symbolCommand[5] & ~(1 << 4)); //24
-                        symbolCommand[5] = params[5].equals("true") ? (byte) (symbolCommand[5] | (1 << 3)) : (byte) (symbolCommand[5] & ~(1 << 3)); //24
-                        symbolCommand[5] = params[4].equals("true") ? (byte) (symbolCommand[5] | (1 << 2)) : (byte) (symbolCommand[5] & ~(1 << 2)); //24
-                        symbolCommand[5] = params[3].equals("true") ? (byte) (symbolCommand[5] | (1 << 1)) : (byte) (symbolCommand[5] & ~(1 << 1)); //24
-                        symbolCommand[5] = params[2].equals("true") ? (byte) (symbolCommand[5] | (1 << 0)) : (byte) (symbolCommand[5] & ~(1 << 0)); //24
-
-
-                            /*LOG.debug("Microbit Symbol bytes: {}", ScratchME.blueBirdDriver.bytesToString(symbolCommand));
-                            ScratchME.blueBirdDriver.displayToHummingbird(connection, symbolCommand);  // Independent  command*/
-
-                        robotManager.setSymbol(devLetter, symbolCommand);
+                        //Set up patern based on params. params[2] to params[26] are the 25 LEDs
+                        int pixels = 0;
+                        for (int i = 0; i < 25; i++) {
+                            if (params[i + 2].equals("true")) {
+                                pixels |= 1 << i;
+                            }
+                        }
+                        robotManager.setSymbol(devLetter, pixels);
 
                     } catch (Exception e) {
                         LOG.error("HummingbirdServelet display Error: {}", e.toString());
@@ -866,6 +1086,10 @@ public class RobotServlet extends HttpServlet {
                             //devName = "BB";
                             //devNum = 1; //devId is always 1 for single device
                             devLetter = 'A';
+                        } else if (params.length == 2 && params[1].equals("all")) {
+                            //Every connected robot. Time to the radio is in metrics as stopToWrite
+                            robotManager.stopAllRobots();
+                            break;
                         } else if (params.length == 2) {
                             //deviceIdObj = getDevNameFromDropdown(params[3]);
                             //devName = deviceIdObj.name;
@@ -891,128 +1115,136 @@ public class RobotServlet extends HttpServlet {
                     }
                     break;
 
+                case "resetPose":
+                    devLetter = params[1].charAt(0);
+                    robotManager.resetPose(devLetter);
+                    break;
                 case "resetEncoders":
                     devLetter = params[1].charAt(0);
                     //ScratchME.blueBirdDriver.sendResetEncodersCommand(devLetter);
                     robotManager.resetEncoders(devLetter);
                     break;
                 case "turn":
+                case "curve":
+                case "move":
+                case "wheels":
                     {
                         devLetter = params[1].charAt(0);
-                        String direction = params[2];
-                        double angle = Double.parseDouble(params[3]);//Integer.parseInt(params[3]);
-                        int speed = (int) Math.round(Double.parseDouble(params[4]));//Integer.parseInt(params[4]);
-
-                        //int ticks = (int) Math.round(angle * ScratchME.blueBirdDriver.FINCH_CM_PER_DEGREE * ScratchME.blueBirdDriver.FINCH_TICKS_PER_CM);
-                        int ticks = (int) Math.round(angle * FINCH_TICKS_PER_DEGREE);
-
-                        if (ticks != 0) { //ticks=0 is the command for continuous motion
-                            boolean shouldTurnRight = direction.equals("Right");
-                            if (ticks < 0) {
-                                shouldTurnRight = !shouldTurnRight;
-                                ticks = Math.abs(ticks);
-                            }
-                            if (shouldTurnRight) {
-                                //ScratchME.blueBirdDriver.updateMotors(devLetter, speed, ticks, -speed, ticks);
-                                robotManager.updateMotors(devLetter, speed, ticks, -speed, ticks);
-                            } else {
-                                //ScratchME.blueBirdDriver.updateMotors(devLetter, -speed, ticks, speed, ticks);
-                                robotManager.updateMotors(devLetter, -speed, ticks, speed, ticks);
-                            }
+                        FinchMotion motion = parseMotion(params);
+                        if (motion != null) {
+                            robotManager.updateMotors(devLetter, motion.speedL, motion.ticksL, motion.speedR, motion.ticksR);
                         }
                     }
                     break;
-                 case "curve":
-                    {
+                case "queue": //queue/<move|turn|curve|wheels>/<devLetter>/...
+                    try {
+                        String[] motionParams = Arrays.copyOfRange(params, 1, params.length);
+                        devLetter = motionParams[1].charAt(0);
+                        FinchMotion motion = parseMotion(motionParams);
+                        if (motion != null) {
+                            robotManager.enqueueMotion(devLetter, motion);
+                        }
+                    } catch (Exception e) {
+                        LOG.error("HummingbirdServelet queue Error: {}", e.toString());
+                    }
+                    break;
+                case "trigger":
+                    try {
+                        // trigger/<devLetter>/<name>/<sensor>/<op>/<threshold>
                         devLetter = params[1].charAt(0);
-                        String tDir = params[2];
-                        double aDiam = Double.parseDouble(params[3]); // negative will swap aDir "L" <--> "R"
-                        String aDir = params[4];
-                        double angle = Double.parseDouble(params[5]); // negative will swap tDir "F" <--> "B"
-                        double speed = Double.parseDouble(params[6]); // negative will swap tDir "F" <--> "B"
-
-                        int outerTks = (int)Math.round((Math.abs(aDiam) + FINCH_WHEELBASE_CM) * Math.PI * Math.abs(angle) / 360 * FINCH_TICKS_PER_CM);
-                        int innerTks = (int)Math.round((Math.abs(aDiam) - FINCH_WHEELBASE_CM) * Math.PI * Math.abs(angle) / 360 * FINCH_TICKS_PER_CM);
-                        // wheel with longer travel uses the requested power level
-                        int outerSpd = (int)Math.round(Math.abs(speed));
-                        if (outerTks != 0 && outerSpd != 0) {
-                            // wheel with shorter travel uses a lower absolute power (but it could be zero, or negated),
-                            int innerSpd = (int)Math.round(Math.abs(speed) * innerTks / outerTks);
-                            if (innerSpd == 0)
-                                innerTks = 0;
-
-                            boolean circleOnRight = aDir.equals("Right");
-                            if (aDiam < 0)
-                                circleOnRight = !circleOnRight;
-
-                            boolean movingForward = !tDir.equals("Backward");
-                            if (angle < 0)
-                                movingForward = !movingForward;
-                            if (speed < 0)
-                                movingForward = !movingForward;
-
-                            LOG.debug("curve {} {} {} {} {} {}", outerTks, outerSpd, innerTks, innerSpd, circleOnRight, movingForward);
-                            if (movingForward && circleOnRight) // forward, right-is-inside
-                                robotManager.updateMotors(devLetter, outerSpd, outerTks, innerSpd, innerTks);
-                            else if (movingForward) // forward, left-is-inside
-                                robotManager.updateMotors(devLetter, innerSpd, innerTks, outerSpd, outerTks);
-                            else if (circleOnRight) // backward, right-is-inside
-                                robotManager.updateMotors(devLetter, -outerSpd, outerTks, -innerSpd, innerTks);
-                            else // backward, left-is-inside
-                                robotManager.updateMotors(devLetter, -innerSpd, innerTks, -outerSpd, outerTks);
+                        Sensor sensor = Sensor.fromLabel(params[3]);
+                        SensorTriggers.Op op = SensorTriggers.Op.fromLabel(params[4]);
+                        if (sensor == null || op == null) {
+                            LOG.error("HummingbirdServelet: trigger Bad Parameters: {}", parameterPath);
+                            break;
                         }
+                        int threshold = (int) Math.round(Double.parseDouble(params[5]));
+                        robotManager.setTrigger(devLetter, params[2], sensor, op, threshold);
+                    } catch (Exception e) {
+                        LOG.error("HummingbirdServelet trigger Error: {}", e.toString());
                     }
-                     break;
-                case "move":
+                    break;
+                case "removeTrigger":
                     devLetter = params[1].charAt(0);
-                    String dir = params[2];
-                    double dist = Double.parseDouble(params[3]);//Integer.parseInt(params[3]);
-                    int spd = (int) Math.round(Double.parseDouble(params[4]));//Integer.parseInt(params[4]);
-
-                    int tks = (int) Math.round(dist * FINCH_TICKS_PER_CM);
-
-                    if (dir.equals("Backward")) { spd = -spd; }
-                    if (tks < 0) {
-                        spd = -spd;
-                        tks = Math.abs(tks);
-                    }
-                    LOG.debug("move {} {}", spd, tks);
-                    if (tks != 0) { //tks=0 is the command for continuous motion
-                        //ScratchME.blueBirdDriver.updateMotors(devLetter, spd, tks, spd, tks);
-                        robotManager.updateMotors(devLetter, spd, tks, spd, tks);
+                    robotManager.removeTrigger(devLetter, params[2]);
+                    break;
+                case "playMelody":
+                    try {
+                        devLetter = params[1].charAt(0);
+                        robotManager.startMelody(devLetter, Melody.parse(params, 2));
+                    } catch (IllegalArgumentException e) {
+                        LOG.error("HummingbirdServelet playMelody Error: {}", e.getMessage());
                     }
                     break;
-                case "wheels":
+                case "stopMelody":
                     devLetter = params[1].charAt(0);
-                    int left = (int) Math.round(Double.parseDouble(params[2]));//Integer.parseInt(params[2]);
-                    int right = (int) Math.round(Double.parseDouble(params[3]));//Integer.parseInt(params[3]);
-                    int ticksL = 0;
-                    int ticksR = 0;
-                    if (params.length >= 6) {
-                        double cmL = Double.parseDouble(params[4]);
-                        double cmR = Double.parseDouble(params[5]);
-                        ticksL = (int) Math.round(FINCH_TICKS_PER_CM * cmL);
-                        ticksR = (int) Math.round(FINCH_TICKS_PER_CM * cmR);
-                        if (ticksL == 0 && cmL > 0.0)
-                            ticksL = 1;
-                        else if (ticksL == 0 && cmL < 0.0)
-                            ticksL = -1;
-                        if (ticksL < 0) {
-                            left = -left;
-                            ticksL = -ticksL;
+                    robotManager.stopMelody(devLetter);
+                    break;
+                case "rampWheels": //rampWheels/<devLetter>/<left>/<right>/<ms>[/<curve>]
+                case "rampServo": //rampServo/<devLetter>/<port>/<target>/<ms>[/<curve>]
+                    try {
+                        devLetter = params[1].charAt(0);
+                        Ramp.Curve curve = (params.length > 5) ? Ramp.Curve.fromLabel(params[5]) : Ramp.Curve.LINEAR;
+                        if (curve == null) {
+                            LOG.error("HummingbirdServelet: unknown ramp curve {}", params[5]);
+                            break;
                         }
-                        if (ticksR == 0 && cmR > 0.0)
-                            ticksR = 1;
-                        else if (ticksR == 0 && cmR < 0.0)
-                            ticksR = -1;
-                        if (ticksR < 0) {
-                            right = -right;
-                            ticksR = -ticksR;
+                        int first = (int) Math.round(Double.parseDouble(params[2]));
+                        int second = (int) Math.round(Double.parseDouble(params[3]));
+                        long duration = Long.parseLong(params[4]);
+                        if (params[0].equals("rampWheels")) {
+                            robotManager.startWheelRamp(devLetter, Math.max(-100, Math.min(100, first)), Math.max(-100, Math.min(100, second)), duration, curve);
+                        } else {
+                            robotManager.startServoRamp(devLetter, first, Math.max(0, Math.min(254, second)), duration, curve);
                         }
+                    } catch (Exception e) {
+                        LOG.error("HummingbirdServelet ramp Error: {}", e.toString());
+                    }
+                    break;
+                case "controller": //controller/<devLetter>?mode=pid&input=...
+                    try {
+                        devLetter = params[1].charAt(0);
+                        robotManager.startController(devLetter, Controller.parse(httpServletRequest::getParameter));
+                    } catch (IllegalArgumentException e) {
+                        LOG.error("HummingbirdServelet controller Error: {}", e.getMessage());
+                    }
+                    break;
+                case "controllerOff":
+                    devLetter = params[1].charAt(0);
+                    robotManager.stopController(devLetter);
+                    break;
+                case "stopScript":
+                    devLetter = params[1].charAt(0);
+                    robotManager.stopScript(devLetter);
+                    break;
+                case "animateSymbol":
+                    try {
+                        devLetter = params[1].charAt(0);
+                        robotManager.startAnimation(devLetter, Animation.parseSymbols(params, 2));
+                    } catch (IllegalArgumentException e) {
+                        LOG.error("HummingbirdServelet animateSymbol Error: {}", e.getMessage());
+                    }
+                    break;
+                case "animateTriLed":
+                    try {
+                        devLetter = params[1].charAt(0);
+                        robotManager.startAnimation(devLetter, Animation.parseTriLed(params[2], params, 3));
+                    } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+                        LOG.error("HummingbirdServelet animateTriLed Error: {}", e.toString());
+                    }
+                    break;
+                case "stopAnimation":
+                    devLetter = params[1].charAt(0);
+                    robotManager.stopAnimations(devLetter);
+                    break;
+                case "pollingMode":
+                    devLetter = params[1].charAt(0);
+                    PollingMode pollingMode = PollingMode.fromLabel(params[2]);
+                    if (pollingMode == null) {
+                        LOG.error("Unknown polling mode {}", params[2]);
+                    } else {
+                        robotManager.setPollingMode(devLetter, pollingMode);
                     }
-                    LOG.debug("wheels {} {} {} {}", left, ticksL, right, ticksR);
-                    //ScratchME.blueBirdDriver.updateMotors(devLetter, left, ticksL, right, ticksR);
-                    robotManager.updateMotors(devLetter, left, ticksL, right, ticksR);
                     break;
                 case "stopFinch":
                     devLetter = params[1].charAt(0);
@@ -1022,6 +1254,35 @@ public class RobotServlet extends HttpServlet {
             }
             // No response to process. Return 200 anyway.
             out.print("200");
+        } else if (uri.startsWith(hGroup)) {
+            // group/hold/<devLetters>, group/release/<devLetters>?at=<epoch ms>, group/status
+            String[] params = uri.substring(hGroup.length()).split("/");
+            if (params.length < 2 && !params[0].equals("status")) {
+                LOG.error("Invalid hummingbird group URL: " + uri);
+                out.print("404");
+                return;
+            }
+            switch (params[0]) {
+                case "hold":
+                    out.print(String.valueOf(robotManager.holdGroup(params[1])));
+                    break;
+                case "release":
+                    long at = getLongParameter(httpServletRequest, "at", 0);
+                    robotManager.releaseGroup(params[1], at);
+                    out.print("200");
+                    break;
+                case "status":
+                    GroupRelease release = robotManager.getLastGroupRelease();
+                    httpServletResponse.setContentType("application/json");
+                    out.print(release == null ? "{}" : release.toJson().toString());
+                    break;
+                default:
+                    LOG.error("Invalid hummingbird group URL: " + uri);
+                    out.print("404");
+            }
+        } else if (uri.equals(hMetrics)) {
+            httpServletResponse.setContentType("application/json");
+            out.print(robotManager.getMetrics().toString());
         } else {
             LOG.error("Invalid hummingbird block URL: " + uri);
             out.print("404");
@@ -1030,14 +1291,49 @@ public class RobotServlet extends HttpServlet {
 
     }
 
-    public short bytes2short (int msb_index, int lsb_index, char devLetter) {
-        Robot robot = robotManager.getConnectedRobot(devLetter, "Cannot get bytes2short value.");
-        if (robot == null) {  return 0; }
+    // Finch motion blocks, params[0] is the block and params[1] the devLetter.
+    // Returns null if the request works out to no motion.
+    private FinchMotion parseMotion(String[] params) {
+        switch (params[0]) {
+            case "turn":
+                return FinchMotion.turn(params[2], Double.parseDouble(params[3]), Double.parseDouble(params[4]));
+            case "curve":
+                return FinchMotion.curve(params[2], Double.parseDouble(params[3]), params[4],
+                        Double.parseDouble(params[5]), Double.parseDouble(params[6]));
+            case "move":
+                return FinchMotion.move(params[2], Double.parseDouble(params[3]), Double.parseDouble(params[4]));
+            case "wheels":
+                Double cmL = null;
+                Double cmR = null;
+                if (params.length >= 6) {
+                    cmL = Double.parseDouble(params[4]);
+                    cmR = Double.parseDouble(params[5]);
+                }
+                return FinchMotion.wheels(Double.parseDouble(params[2]), Double.parseDouble(params[3]), cmL, cmR);
+            default:
+                LOG.error("Unknown finch motion {}", params[0]);
+                return null;
+        }
+    }
+
+    private long getLongParameter(HttpServletRequest request, String name, long defaultValue) {
+        String param = request.getParameter(name);
+        if (param == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(param);
+        } catch (NumberFormatException e) {
+            LOG.error("Bad value for parameter {}: {}", name, param);
+            return defaultValue;
+        }
+    }
 
+    public short bytes2short (int msb_index, int lsb_index, SensorSnapshot snapshot) {
         byte msb, lsb = 0;
 
-        lsb = robot.getNotificationDataByte(lsb_index);
-        msb = robot.getNotificationDataByte(msb_index);
+        lsb = snapshot.getByte(lsb_index);
+        msb = snapshot.getByte(msb_index);
 
         short value = (short)(lsb & 0x00FF);  //lsb
         value |= (msb << 8) & 0xFFFF;  //msb
@@ -1064,6 +1360,11 @@ public class RobotServlet extends HttpServlet {
     }
 
 
+    private long getFrameAgeMs(Robot robot) {
+        long frameNs = robot.getLastFrameNanos();
+        return frameNs == 0 ? -1 : (System.nanoTime() - frameNs) / 1000000;
+    }
+
     private String roundToString(double value) {
         BigDecimal bd = new BigDecimal(value);  //Scaling factor of 0.1
         bd = bd.setScale(2, RoundingMode.HALF_UP);  //Round to 2 decimal places
@@ -1076,18 +1377,15 @@ public class RobotServlet extends HttpServlet {
     Y-finch = y-micro:bit*cos 40° - z-micro:bit*sin 40°
     Z-finch = y-micro:bit*sin 40° + z-micro:bit* cos 40°
     */
-    public double getFinchAcceleration(String axis, char devLetter) {
-        Robot robot = robotManager.getConnectedRobot(devLetter, "Cannot get acceleration value.");
-        if (robot == null) { return 0; }
-
+    public double getFinchAcceleration(String axis, SensorSnapshot snapshot) {
         switch (axis) {
             case "X":
-                float x = robot.getNotificationDataByte(13);
+                float x = snapshot.getByte(13);
                 return x;
             case "Y":
             case "Z":
-                float y = robot.getNotificationDataByte(14);
-                float z = robot.getNotificationDataByte(15);
+                float y = snapshot.getByte(14);
+                float z = snapshot.getByte(15);
 
                 switch (axis){
                     case "Y":
@@ -1111,18 +1409,15 @@ public class RobotServlet extends HttpServlet {
     Y-finch = y-micro:bit*cos 40° + z-micro:bit*sin 40°
     Z-finch = z-micro:bit* cos 40° - y-micro:bit*sin 40°
     */
-    public double getFinchMagnetometer(String axis, char devLetter) {
-        Robot robot = robotManager.getConnectedRobot(devLetter, "Cannot get magnetometer value.");
-        if (robot == null) { return 0; }
-
+    public double getFinchMagnetometer(String axis, SensorSnapshot snapshot) {
         switch (axis) {
             case "X":
-                double x = robot.getNotificationDataByte(17);
+                double x = snapshot.getByte(17);
                 return x;
             case "Y":
             case "Z":
-                double y = robot.getNotificationDataByte(18);
-                double z = robot.getNotificationDataByte(19);
+                double y = snapshot.getByte(18);
+                double z = snapshot.getByte(19);
 
                 switch (axis){
                     case "Y":
@@ -1143,57 +1438,6 @@ public class RobotServlet extends HttpServlet {
 
 
 
-    public double rawToCompass(char devLetter, String devType, boolean finchReference) {
-        Robot robot = robotManager.getConnectedRobot(devLetter, "Cannot get compass value.");
-        if (robot == null) {
-            LOG.error("Cannot get compass value. Device {} not connected.", devLetter);
-            return 0;
-        }
-        short mx, my, mz;
-        double ax, ay, az;
-
-        if (finchReference) { //raw values moved to reference frame of finch
-            mx = (short)Math.round(getFinchMagnetometer("X", devLetter));
-            my = (short)Math.round(getFinchMagnetometer("Y", devLetter));
-            mz = (short)Math.round(getFinchMagnetometer("Z", devLetter));
-            ax = getFinchAcceleration("X", devLetter);
-            ay = getFinchAcceleration("Y", devLetter);
-            az = getFinchAcceleration("Z", devLetter);
-        } else {
-            int accXindex = 4;
-            if (devType.equals("FN")) { //the finch returns values already converted to uT.
-                accXindex = 13;
-                mx = (short)(robot.getNotificationDataByte(17) * 10);
-                my = (short)(robot.getNotificationDataByte(18) * 10);
-                mz = (short)(robot.getNotificationDataByte(19) * 10);
-            } else {
-                mx = bytes2short (8, 9, devLetter);
-                my = bytes2short (10, 11, devLetter);
-                mz = bytes2short (12, 13, devLetter);
-            }
-            ax = robot.getNotificationDataByte(accXindex);
-            ay = robot.getNotificationDataByte((accXindex+1));
-            az = robot.getNotificationDataByte((accXindex+2));
-        }
-
-
-        LOG.debug("x:" + ax + "   y" + ay + "   z" + az);
-        LOG.debug("mx:" + mx + " my" + my + "  mz" + mz);
-
-        double phi = Math.atan(-ay / az);
-        double theta = Math.atan(ax / (ay * Math.sin(phi) + az * Math.cos(phi)));
-
-        double xp = mx;
-        double yp = my * Math.cos(phi) - mz * Math.sin(phi);
-        double zp = my * Math.sin(phi) + mz * Math.cos(phi);
-
-        double xpp = xp * Math.cos(theta) + zp * Math.sin(theta);
-        double ypp = yp;
-
-        double angle = 180.0 + Math.toDegrees(Math.atan2(xpp, ypp));
-
-        return angle;
-    }
 
 
 }
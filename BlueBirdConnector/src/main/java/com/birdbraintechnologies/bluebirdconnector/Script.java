@@ -0,0 +1,213 @@
+package com.birdbraintechnologies.bluebirdconnector;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+// A choreography uploaded once and run by ScriptRun inside the connector,
+// so its timing does not depend on HTTP round trips. The script is a JSON
+// array of steps, each an object with an "op":
+//
+//   {"op": "wait", "ms": 500}
+//   {"op": "repeat", "times": 3, "steps": [...]}     no "times" repeats forever
+//   {"op": "move", "direction": "Forward", "distance": 10, "speed": 50}
+//   {"op": "turn", "direction": "Right", "angle": 90, "speed": 50}
+//   {"op": "wheels", "left": 50, "right": 50}
+//   {"op": "stopMotors"}
+//   {"op": "triled", "port": "1", "r": 255, "g": 0, "b": 0}
+//   {"op": "servo", "port": 1, "value": 90}          Hummingbird ports 1-4
+//   {"op": "playnote", "note": 60, "ms": 500}
+//   {"op": "symbol", "pattern": "10101..."}          25 characters of 0 and 1
+//   {"op": "print", "text": "hi"}
+//
+// Values are raw, as the matching /hummingbird/out requests send them.
+// move and turn go through the Finch motion queue and the script waits for
+// them to finish (one that works out to no motion is skipped); everything
+// else takes no time.
+public class Script {
+
+    public static final int MAX_STEPS = 1000;
+    public static final int MAX_REPEAT = 10000;
+
+    enum Op { ACTION, WAIT, MOTION, LOOP, END_LOOP }
+
+    static final class Step {
+        final Op op;
+        final String name; // the JSON op, for status reports
+        long ms; // WAIT
+        int count; // LOOP, 0 for forever
+        int jump; // LOOP: its END_LOOP. END_LOOP: its LOOP
+        Consumer<Robot> action; // ACTION
+        FinchMotion motion; // MOTION
+
+        Step(Op op, String name) {
+            this.op = op;
+            this.name = name;
+        }
+    }
+
+    final Step[] steps;
+
+    private Script(Step[] steps) {
+        this.steps = steps;
+    }
+
+    public static Script parse(String json) {
+        JsonElement root;
+        try {
+            root = JsonParser.parseString(json);
+        } catch (JsonParseException e) {
+            throw new IllegalArgumentException("Script is not valid JSON: " + e.getMessage());
+        }
+        if (!root.isJsonArray()) {
+            throw new IllegalArgumentException("A script is a JSON array of steps");
+        }
+        List<Step> steps = new ArrayList<>();
+        compile(root.getAsJsonArray(), steps);
+        if (steps.isEmpty()) {
+            throw new IllegalArgumentException("Script has no steps");
+        }
+        return new Script(steps.toArray(new Step[0]));
+    }
+
+    // Flattens the steps, with each repeat becoming a LOOP ... END_LOOP pair.
+    private static void compile(JsonArray array, List<Step> steps) {
+        for (JsonElement element : array) {
+            if (steps.size() >= MAX_STEPS) {
+                throw new IllegalArgumentException("Script is longer than " + MAX_STEPS + " steps");
+            }
+            if (!element.isJsonObject()) {
+                throw new IllegalArgumentException("Script step is not an object: " + element);
+            }
+            JsonObject obj = element.getAsJsonObject();
+            String op = getString(obj, "op");
+            Step step;
+            switch (op) {
+                case "wait":
+                    step = new Step(Op.WAIT, op);
+                    step.ms = getInt(obj, "ms", 0, Integer.MAX_VALUE);
+                    break;
+                case "repeat": {
+                    Step loop = new Step(Op.LOOP, op);
+                    loop.count = obj.has("times") ? getInt(obj, "times", 1, MAX_REPEAT) : 0;
+                    int begin = steps.size();
+                    steps.add(loop);
+                    if (!obj.has("steps") || !obj.get("steps").isJsonArray()) {
+                        throw new IllegalArgumentException("repeat needs a steps array");
+                    }
+                    compile(obj.getAsJsonArray("steps"), steps);
+                    if (loop.count == 0 && !takesTime(steps, begin + 1)) {
+                        throw new IllegalArgumentException("A repeat without times needs a wait or a motion");
+                    }
+                    step = new Step(Op.END_LOOP, op);
+                    step.jump = begin;
+                    loop.jump = steps.size();
+                    break;
+                }
+                case "move":
+                    step = new Step(Op.MOTION, op);
+                    step.motion = FinchMotion.move(getString(obj, "direction"),
+                            getDouble(obj, "distance"), getDouble(obj, "speed"));
+                    break;
+                case "turn":
+                    step = new Step(Op.MOTION, op);
+                    step.motion = FinchMotion.turn(getString(obj, "direction"),
+                            getDouble(obj, "angle"), getDouble(obj, "speed"));
+                    break;
+                case "wheels": {
+                    FinchMotion found = FinchMotion.wheels(getDouble(obj, "left"), getDouble(obj, "right"), null, null);
+                    FinchMotion wheels = (found != null) ? found : new FinchMotion(0, 0, 0, 0);
+                    step = action(op, (robot) -> robot.updateMotors(wheels.speedL, wheels.ticksL, wheels.speedR, wheels.ticksR));
+                    break;
+                }
+                case "stopMotors":
+                    step = action(op, (robot) -> robot.updateMotors(0, 0, 0, 0));
+                    break;
+                case "triled": {
+                    String port = getString(obj, "port");
+                    byte r = (byte) getInt(obj, "r", 0, 255);
+                    byte g = (byte) getInt(obj, "g", 0, 255);
+                    byte b = (byte) getInt(obj, "b", 0, 255);
+                    step = action(op, (robot) -> robot.updateSetAllLED(port, r, g, b));
+                    break;
+                }
+                case "servo": {
+                    int index = 8 + getInt(obj, "port", 1, 4); //servo ports 1-4 are setAll bytes 9-12
+                    byte value = (byte) getInt(obj, "value", 0, 255);
+                    step = action(op, (robot) -> robot.updateSetAll(index, value));
+                    break;
+                }
+                case "playnote": {
+                    int note = getInt(obj, "note", 0, 127);
+                    int ms = getInt(obj, "ms", 0, 0xFFFF);
+                    step = action(op, (robot) -> robot.updateBuzzer(note, ms));
+                    break;
+                }
+                case "symbol": {
+                    int pixels = Animation.parsePixels(getString(obj, "pattern"));
+                    step = action(op, (robot) -> robot.setSymbol(pixels));
+                    break;
+                }
+                case "print": {
+                    String text = getString(obj, "text");
+                    step = action(op, (robot) -> robot.startPrint(text.toCharArray()));
+                    break;
+                }
+                default:
+                    throw new IllegalArgumentException("Unknown script op: " + op);
+            }
+            steps.add(step);
+        }
+    }
+
+    private static Step action(String name, Consumer<Robot> action) {
+        Step step = new Step(Op.ACTION, name);
+        step.action = action;
+        return step;
+    }
+
+    private static boolean takesTime(List<Step> steps, int from) {
+        for (int i = from; i < steps.size(); i++) {
+            Step step = steps.get(i);
+            if ((step.op == Op.MOTION && step.motion != null) || (step.op == Op.WAIT && step.ms > 0)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String getString(JsonObject obj, String name) {
+        JsonElement value = obj.get(name);
+        if (value == null || !value.isJsonPrimitive()) {
+            throw new IllegalArgumentException("Script step needs " + name + ": " + obj);
+        }
+        return value.getAsString();
+    }
+
+    private static double getDouble(JsonObject obj, String name) {
+        try {
+            return Double.parseDouble(getString(obj, name));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Bad " + name + " in script step: " + obj);
+        }
+    }
+
+    private static int getInt(JsonObject obj, String name, int min, int max) {
+        int value;
+        try {
+            value = Integer.parseInt(getString(obj, name));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Bad " + name + " in script step: " + obj);
+        }
+        if (value < min || value > max) {
+            throw new IllegalArgumentException(name + " out of range in script step: " + obj);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,187 @@
+package com.birdbraintechnologies.bluebirdconnector;
+
+import com.google.gson.JsonObject;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+// One execution of a Script on a robot. Steps run on RobotScheduler: the
+// steps up to the next wait run in one task, and each wait is scheduled
+// against a running timeline rather than from when the previous task
+// happened to run, so waits add up exactly. A Finch motion ends when the
+// robot reports it done, and the timeline restarts from there. A loop that
+// runs long without a wait gives up the scheduler thread after about
+// MAX_STEPS_PER_TASK steps, so it cannot hold up other robots.
+public class ScriptRun {
+    static final Log LOG = Log.getLogger(ScriptRun.class);
+
+    private static final int MAX_STEPS_PER_TASK = 1000;
+
+    public enum State {
+        RUNNING("running"), DONE("done"), CANCELLED("cancelled"), FAILED("failed");
+
+        public final String label;
+
+        State(String label) {
+            this.label = label;
+        }
+    }
+
+    private final Robot robot;
+    private final Script script;
+    private final int[] loopCounts; // remaining passes, by LOOP step index
+    private final CompletableFuture<Boolean> done = new CompletableFuture<>();
+    private final long startNs;
+
+    // All guarded by this
+    private State state = State.RUNNING;
+    private int pc = 0;
+    private long timelineNs;
+    private long stepsRun = 0;
+    private String error;
+    private ScheduledFuture<?> task;
+
+    public ScriptRun(Robot robot, Script script) {
+        this.robot = robot;
+        this.script = script;
+        loopCounts = new int[script.steps.length];
+        startNs = System.nanoTime();
+        timelineNs = startNs;
+    }
+
+    public synchronized void start() {
+        schedule(0);
+    }
+
+    public synchronized void cancel() {
+        if (state == State.RUNNING) {
+            finish(State.CANCELLED);
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    // Waits for the script to end. Returns true if it ran to completion,
+    // false on timeout or if it was cancelled or failed.
+    public boolean await(long timeoutMs) throws InterruptedException {
+        try {
+            return done.get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException | TimeoutException e) {
+            return false;
+        }
+    }
+
+    public synchronized JsonObject getStatus() {
+        JsonObject json = new JsonObject();
+        json.addProperty("state", state.label);
+        json.addProperty("step", pc);
+        if (pc < script.steps.length) {
+            json.addProperty("op", script.steps[pc].name);
+        }
+        json.addProperty("stepsRun", stepsRun);
+        json.addProperty("elapsedMs", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNs));
+        if (error != null) {
+            json.addProperty("error", error);
+        }
+        return json;
+    }
+
+    private void schedule(long delayNs) {
+        task = RobotScheduler.getSharedInstance().schedule(this::run, Math.max(0, delayNs), TimeUnit.NANOSECONDS);
+    }
+
+    private synchronized void run() {
+        if (state != State.RUNNING) {
+            return;
+        }
+        int budget = MAX_STEPS_PER_TASK;
+        try {
+            while (pc < script.steps.length) {
+                Script.Step step = script.steps[pc];
+                stepsRun++;
+                budget--;
+                switch (step.op) {
+                    case ACTION:
+                        step.action.accept(robot);
+                        pc++;
+                        break;
+                    case WAIT:
+                        pc++;
+                        timelineNs += TimeUnit.MILLISECONDS.toNanos(step.ms);
+                        schedule(timelineNs - System.nanoTime());
+                        return;
+                    case MOTION:
+                        pc++;
+                        if (step.motion == null) {
+                            break;
+                        }
+                        if (robot.motionQueue == null) {
+                            fail(step.name + " needs a Finch");
+                            return;
+                        }
+                        robot.motionQueue.enqueue(step.motion).whenCompleteAsync(
+                                (ok, e) -> motionDone(ok != null && ok), RobotScheduler.getSharedInstance());
+                        return;
+                    case LOOP:
+                        loopCounts[pc] = step.count;
+                        pc++;
+                        break;
+                    case END_LOOP: {
+                        int begin = step.jump;
+                        int count = script.steps[begin].count;
+                        if (count == 0 || --loopCounts[begin] > 0) {
+                            pc = begin + 1;
+                        } else {
+                            pc++;
+                        }
+                        if (budget <= 0) {
+                            // Only a loop can run past the budget, so carry on
+                            // in a new task here, on the same timeline
+                            schedule(0);
+                            return;
+                        }
+                        break;
+                    }
+                }
+            }
+            finish(State.DONE);
+        } catch (RuntimeException e) {
+            LOG.error("Script step {} failed: {}", pc, e.toString());
+            fail(e.toString());
+        }
+    }
+
+    // Runs on the scheduler, never under the motion queue's lock, which is
+    // held while it completes a motion.
+    private synchronized void motionDone(boolean completed) {
+        if (state != State.RUNNING) {
+            return;
+        }
+        if (!completed) {
+            fail("motion was cancelled");
+            return;
+        }
+        timelineNs = System.nanoTime();
+        schedule(0);
+    }
+
+    private void fail(String message) {
+        error = message;
+        finish(State.FAILED);
+    }
+
+    private void finish(State end) {
+        state = end;
+        if (task != null) {
+            task.cancel(false);
+            task = null;
+        }
+        LOG.debug("Script on {} {} after {} steps", robot.name, end.label, stepsRun);
+        done.complete(end == State.DONE);
+    }
+}
@@ -0,0 +1,104 @@
+package com.birdbraintechnologies.bluebirdconnector;
+
+// Decoded sensor values, read straight out of a notification frame.
+// These mirror the conversions RobotServlet applies to the raw bytes, but
+// work on an int and never allocate, so they are cheap enough to evaluate
+// for every incoming frame.
+public enum Sensor {
+    DISTANCE("Distance"),
+    LIGHT_LEFT("LightLeft"),
+    LIGHT_RIGHT("LightRight"),
+    LINE_LEFT("LineLeft"),
+    LINE_RIGHT("LineRight"),
+    PORT_1("Port1"),
+    PORT_2("Port2"),
+    PORT_3("Port3"),
+    SOUND("Sound"),
+    BUTTON_A("ButtonA"),
+    BUTTON_B("ButtonB"),
+    BUTTON_LOGO("Logo"),
+    SHAKE("Shake"),
+    ACCEL_X("AccelX"),
+    ACCEL_Y("AccelY"),
+    ACCEL_Z("AccelZ"),
+    FINCH_MOVING("FinchMoving");
+
+    public final String label;
+
+    Sensor(String label) {
+        this.label = label;
+    }
+
+    public static Sensor fromLabel(String label) {
+        for (Sensor s : values()) {
+            if (s.label.equalsIgnoreCase(label)) {
+                return s;
+            }
+        }
+        return null;
+    }
+
+    public int read(Robot robot, byte[] data) {
+        boolean finch = robot.type.equals("FN");
+        int buttonIndex = finch ? 16 : 7;
+        int accXIndex = finch ? 13 : 4;
+        switch (this) {
+            case DISTANCE:
+                if (finch && robot.hasV2) {
+                    return uint(data, 1); //value already in cm
+                } else if (finch) {
+                    return (int) Math.round(((uint(data, 0) << 8) + uint(data, 1)) * 0.0919);
+                } else {
+                    return uint(data, 0); //raw value of a distance sensor on port 1
+                }
+            case LIGHT_LEFT:
+                return uint(data, 2);
+            case LIGHT_RIGHT:
+                return uint(data, 3);
+            case LINE_LEFT:
+                //Must remove the finch move finished flag
+                return lineValue(uint(data, 4) & 0x7F);
+            case LINE_RIGHT:
+                return lineValue(uint(data, 5));
+            case PORT_1:
+                return uint(data, 0);
+            case PORT_2:
+                return uint(data, 1);
+            case PORT_3:
+                return uint(data, 2);
+            case SOUND:
+                return uint(data, finch ? 0 : 14);
+            case BUTTON_A:
+                return (byteAt(data, buttonIndex) & 0x10) == 0 ? 1 : 0;
+            case BUTTON_B:
+                return (byteAt(data, buttonIndex) & 0x20) == 0 ? 1 : 0;
+            case BUTTON_LOGO:
+                return (robot.hasV2 && (byteAt(data, buttonIndex) & 0x02) == 0) ? 1 : 0;
+            case SHAKE:
+                return byteAt(data, buttonIndex) & 0x01;
+            case ACCEL_X:
+                return byteAt(data, accXIndex);
+            case ACCEL_Y:
+                return byteAt(data, accXIndex + 1);
+            case ACCEL_Z:
+                return byteAt(data, accXIndex + 2);
+            case FINCH_MOVING:
+                return (finch && byteAt(data, 4) < 0) ? 1 : 0;
+            default:
+                return 0;
+        }
+    }
+
+    private static int lineValue(int val) {
+        int realVal = 100 - ((val - 6) * 100 / 121);
+        return Math.max(0, Math.min(100, realVal));
+    }
+
+    static byte byteAt(byte[] data, int index) {
+        return (index >= 0 && index < data.length) ? data[index] : 0;
+    }
+
+    static int uint(byte[] data, int index) {
+        return byteAt(data, index) & 0xFF;
+    }
+}
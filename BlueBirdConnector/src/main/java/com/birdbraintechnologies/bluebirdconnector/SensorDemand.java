@@ -0,0 +1,178 @@
+package com.birdbraintechnologies.bluebirdconnector;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+// Tracks whether anyone wants sensor data from a robot. Robots stream
+// notifications from the moment they connect; when nothing has read a
+// sensor or sent a command for the mode's idle timeout, and nothing is
+// watching the stream (triggers, a controller, queued Finch motion, wheels
+// still turning, which odometry must follow), the stream is stopped with
+// POLL_STOP. Any command, or anything that starts watching the stream,
+// starts it again. A read also waits briefly for a fresh frame, so it is
+// not answered from data that is minutes old.
+//
+// Battery level and signal strength only arrive in frames, so while the
+// stream is stopped it is started for a single frame every
+// BATTERY_SAMPLE_MS, which keeps the battery display and the low battery
+// warning up to date.
+public class SensorDemand {
+    static final Log LOG = Log.getLogger(SensorDemand.class);
+
+    private static final long CHECK_INTERVAL_MS = 1000;
+    // A frame normally arrives within a couple of connection intervals
+    private static final long RESUME_WAIT_MS = 250;
+    private static final long BATTERY_SAMPLE_MS = 60000;
+    // A sample that got no frame is given up after this long
+    private static final long SAMPLE_TIMEOUT_MS = 5000;
+
+    private final Robot robot;
+    private volatile PollingMode mode = PollingMode.STANDARD;
+    private volatile long lastDemandNs = System.nanoTime();
+    private volatile long lastFrameNs = System.nanoTime();
+    private volatile boolean streaming = true; // changes guarded by this
+    private boolean sampling = false; // guarded by this
+    private long sampleStartNs; // guarded by this
+    private volatile CompletableFuture<Void> firstFrame; // set while the stream restarts
+    private ScheduledFuture<?> checkTask; // guarded by this
+
+    public SensorDemand(Robot robot) {
+        this.robot = robot;
+    }
+
+    public PollingMode getMode() {
+        return mode;
+    }
+
+    public void setMode(PollingMode mode) {
+        this.mode = mode;
+    }
+
+    public synchronized boolean isStreaming() {
+        return streaming;
+    }
+
+    // The transports start the stream on connection.
+    public synchronized void start() {
+        streaming = true;
+        sampling = false;
+        lastDemandNs = System.nanoTime();
+        if (checkTask == null) {
+            checkTask = RobotScheduler.getSharedInstance().scheduleWithFixedDelay(
+                    this::checkIdle, CHECK_INTERVAL_MS, CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public synchronized void stop() {
+        if (checkTask != null) {
+            checkTask.cancel(false);
+            checkTask = null;
+        }
+        frameReceived();
+    }
+
+    // Commands count as demand too, and so does anything that starts
+    // watching the stream: a moving Finch needs frames for odometry and its
+    // motion queue, a controller for its input, calibration for its result.
+    // Restarts a stopped stream.
+    public void touch() {
+        lastDemandNs = System.nanoTime();
+        if (!streaming) {
+            resume();
+        }
+    }
+
+    // Called before a sensor read.
+    public void awaitSensorData() {
+        lastDemandNs = System.nanoTime();
+        CompletableFuture<Void> frame = resume();
+        if (frame == null) {
+            return;
+        }
+        try {
+            frame.get(RESUME_WAIT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            LOG.debug("No fresh frame from {} yet", robot.name);
+        }
+    }
+
+    // Returns the future for the first frame if the stream was restarted
+    // and that frame has not come yet, otherwise null.
+    private synchronized CompletableFuture<Void> resume() {
+        if (!streaming) {
+            LOG.debug("Restarting sensor stream for {}", robot.name);
+            streaming = true;
+            firstFrame = new CompletableFuture<>();
+            // A battery sample may have started the stream already
+            if (!sampling) {
+                robot.setStreaming(true);
+            }
+            sampling = false;
+        }
+        return firstFrame;
+    }
+
+    // Called from Robot.receiveNotification for every frame.
+    public void frameReceived() {
+        lastFrameNs = System.nanoTime();
+        CompletableFuture<Void> frame = firstFrame;
+        if (frame != null) {
+            firstFrame = null;
+            frame.complete(null);
+        }
+    }
+
+    // The watchers are checked without holding this, since touch() is
+    // called under their locks (the motion queue's, for one).
+    private void checkIdle() {
+        long now = System.nanoTime();
+        if (!streaming) {
+            checkBatterySample(now);
+            return;
+        }
+        if (idleMs(now) < mode.idleTimeoutMs || !robot.triggers.isEmpty() || robot.getController() != null
+                || (robot.motionQueue != null && !robot.motionQueue.isIdle()) || robot.isDriving()) {
+            return;
+        }
+        synchronized (this) {
+            // touch() sets lastDemandNs before it checks streaming, so
+            // either this sees its demand or it sees the stream stopped
+            long idleMs = idleMs(now);
+            if (!streaming || idleMs < mode.idleTimeoutMs) {
+                return;
+            }
+            LOG.debug("No sensor demand on {} for {} ms, stopping the stream", robot.name, idleMs);
+            streaming = false;
+            robot.metrics.streamPauses.incrementAndGet();
+            robot.setStreaming(false);
+        }
+    }
+
+    private long idleMs(long now) {
+        return TimeUnit.NANOSECONDS.toMillis(now - lastDemandNs);
+    }
+
+    // Only while the stream is stopped
+    private synchronized void checkBatterySample(long now) {
+        if (streaming) {
+            return;
+        }
+        if (sampling) {
+            if (lastFrameNs - sampleStartNs > 0
+                    || TimeUnit.NANOSECONDS.toMillis(now - sampleStartNs) >= SAMPLE_TIMEOUT_MS) {
+                sampling = false;
+                robot.setStreaming(false);
+            }
+        } else if (TimeUnit.NANOSECONDS.toMillis(now - lastFrameNs) >= BATTERY_SAMPLE_MS) {
+            LOG.debug("Sampling the battery of {}", robot.name);
+            sampling = true;
+            sampleStartNs = now;
+            robot.setStreaming(true);
+        }
+    }
+}
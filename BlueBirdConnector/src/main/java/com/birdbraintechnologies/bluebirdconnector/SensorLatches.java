@@ -0,0 +1,64 @@
+package com.birdbraintechnologies.bluebirdconnector;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Short-lived sensor events are latched here as each frame arrives, so a
+// client polling slower than the notification rate still sees them. Every
+// latch is read-and-clear: reading it returns what happened since the
+// previous read and starts a new window.
+public class SensorLatches {
+
+    private final Robot robot;
+
+    private final AtomicInteger buttonA = new AtomicInteger();
+    private final AtomicInteger buttonB = new AtomicInteger();
+    private final AtomicInteger buttonLogo = new AtomicInteger();
+    private final AtomicInteger peakSound = new AtomicInteger();
+    private final AtomicInteger peakAccelSquared = new AtomicInteger(); // raw units, squared magnitude
+    private final AtomicInteger shakeCount = new AtomicInteger();
+    private boolean shaking = false; // only touched on the notification thread
+
+    public SensorLatches(Robot robot) {
+        this.robot = robot;
+    }
+
+    // Called from Robot.receiveNotification for every frame.
+    public void update(byte[] data) {
+        if (Sensor.BUTTON_A.read(robot, data) != 0) { buttonA.set(1); }
+        if (Sensor.BUTTON_B.read(robot, data) != 0) { buttonB.set(1); }
+        if (Sensor.BUTTON_LOGO.read(robot, data) != 0) { buttonLogo.set(1); }
+        if (robot.hasV2) {
+            max(peakSound, Sensor.SOUND.read(robot, data));
+        }
+        int x = Sensor.ACCEL_X.read(robot, data);
+        int y = Sensor.ACCEL_Y.read(robot, data);
+        int z = Sensor.ACCEL_Z.read(robot, data);
+        max(peakAccelSquared, x * x + y * y + z * z);
+
+        boolean shake = Sensor.SHAKE.read(robot, data) != 0;
+        if (shake && !shaking) {
+            shakeCount.incrementAndGet();
+        }
+        shaking = shake;
+    }
+
+    public boolean readButtonA() { return buttonA.getAndSet(0) != 0; }
+    public boolean readButtonB() { return buttonB.getAndSet(0) != 0; }
+    public boolean readButtonLogo() { return buttonLogo.getAndSet(0) != 0; }
+    public int readPeakSound() { return peakSound.getAndSet(0); }
+    public int readShakeCount() { return shakeCount.getAndSet(0); }
+
+    // Peak acceleration magnitude in m/s^2, using the same scaling as the
+    // Accelerometer request in RobotServlet.
+    public double readPeakAcceleration() {
+        double raw = Math.sqrt(peakAccelSquared.getAndSet(0));
+        return raw * (2.0 / 127.0) * 9.8;
+    }
+
+    private static void max(AtomicInteger latch, int value) {
+        int current = latch.get();
+        while (value > current && !latch.compareAndSet(current, value)) {
+            current = latch.get();
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.birdbraintechnologies.bluebirdconnector;
+
+// One notification frame as received from a robot. Snapshots are never
+// modified once published, so a reader that holds on to one can read any
+// number of bytes (a 24-bit encoder count, a magnetometer short...) without
+// mixing two frames. The sequence number goes up by one each time the
+// robot's data changes; identical frames do not get a new snapshot.
+public final class SensorSnapshot {
+
+    static final SensorSnapshot EMPTY = new SensorSnapshot(new byte[0], 0, 0);
+
+    final byte[] data; // owned by the snapshot, never written after construction
+    public final long sequence;
+    public final long receivedNanos; // System.nanoTime() when this data first arrived
+
+    SensorSnapshot(byte[] data, long sequence, long receivedNanos) {
+        this.data = data;
+        this.sequence = sequence;
+        this.receivedNanos = receivedNanos;
+    }
+
+    public int length() {
+        return data.length;
+    }
+
+    public byte getByte(int index) {
+        if (index >= 0 && index < data.length) {
+            return data[index];
+        } else {
+            return 0;
+        }
+    }
+
+    public int getUInt(int index) {
+        return (getByte(index) & 0xFF); //convert to unsigned int
+    }
+
+    public byte[] toByteArray() {
+        return data.clone();
+    }
+}
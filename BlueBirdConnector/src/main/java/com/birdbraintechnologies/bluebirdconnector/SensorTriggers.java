@@ -0,0 +1,205 @@
+package com.birdbraintechnologies.bluebirdconnector;
+
+import java.util.Arrays;
+
+// Registry of sensor conditions that are checked against every incoming
+// notification frame for one robot. Scripts that would otherwise poll for
+// "distance < 10" or "button A pressed" can register a trigger once and then
+// wait on it over HTTP.
+//
+// Registration is rare and copies the trigger array; evaluation runs on the
+// transport's notification thread, walks the current array and does not
+// allocate, so a large number of triggers does not slow down ingestion.
+public class SensorTriggers {
+    static final Log LOG = Log.getLogger(SensorTriggers.class);
+
+    public enum Op {
+        LT("lt"), LE("le"), GT("gt"), GE("ge"), EQ("eq"), NE("ne"),
+        CHANGE("change"); // value moved by at least the threshold since the last firing
+
+        public final String label;
+
+        Op(String label) {
+            this.label = label;
+        }
+
+        public static Op fromLabel(String label) {
+            for (Op op : values()) {
+                if (op.label.equalsIgnoreCase(label)) {
+                    return op;
+                }
+            }
+            return null;
+        }
+    }
+
+    public static class Trigger {
+        public final String name;
+        public final Sensor sensor;
+        public final Op op;
+        public final int threshold;
+
+        // Only written from the notification thread
+        private boolean matching;
+        private boolean primed;
+        private int reference;
+        private volatile long fireCount;
+        private volatile int lastValue;
+
+        Trigger(String name, Sensor sensor, Op op, int threshold) {
+            this.name = name;
+            this.sensor = sensor;
+            this.op = op;
+            this.threshold = threshold;
+        }
+
+        public long getFireCount() {
+            return fireCount;
+        }
+
+        public int getLastValue() {
+            return lastValue;
+        }
+
+        // Returns true on a rising edge of the condition.
+        private boolean evaluate(int value) {
+            lastValue = value;
+            boolean match;
+            switch (op) {
+                case LT: match = value < threshold; break;
+                case LE: match = value <= threshold; break;
+                case GT: match = value > threshold; break;
+                case GE: match = value >= threshold; break;
+                case EQ: match = value == threshold; break;
+                case NE: match = value != threshold; break;
+                case CHANGE:
+                    if (!primed) {
+                        primed = true;
+                        reference = value;
+                        return false;
+                    }
+                    if (Math.abs(value - reference) >= Math.max(1, threshold)) {
+                        reference = value;
+                        fireCount++;
+                        return true;
+                    }
+                    return false;
+                default: match = false;
+            }
+            boolean rising = match && !matching;
+            matching = match;
+            if (rising) {
+                fireCount++;
+            }
+            return rising;
+        }
+    }
+
+    private static final Trigger[] NO_TRIGGERS = new Trigger[0];
+
+    private final Robot robot;
+    private volatile Trigger[] triggers = NO_TRIGGERS;
+    private final Object waitLock = new Object();
+
+    public SensorTriggers(Robot robot) {
+        this.robot = robot;
+    }
+
+    public synchronized void add(String name, Sensor sensor, Op op, int threshold) {
+        Trigger[] current = triggers;
+        Trigger[] next = null;
+        Trigger trigger = new Trigger(name, sensor, op, threshold);
+        for (int i = 0; i < current.length; i++) {
+            if (current[i].name.equals(name)) {
+                next = current.clone();
+                next[i] = trigger;
+                break;
+            }
+        }
+        if (next == null) {
+            next = Arrays.copyOf(current, current.length + 1);
+            next[current.length] = trigger;
+        }
+        triggers = next;
+        robot.demand.touch();
+        LOG.debug("{}: trigger {} set to {} {} {}", robot.name, name, sensor.label, op.label, threshold);
+    }
+
+    public synchronized boolean remove(String name) {
+        Trigger[] current = triggers;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i].name.equals(name)) {
+                Trigger[] next = new Trigger[current.length - 1];
+                System.arraycopy(current, 0, next, 0, i);
+                System.arraycopy(current, i + 1, next, i, current.length - i - 1);
+                triggers = next;
+                wakeWaiters(); // anyone waiting on this trigger should give up
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public synchronized void clear() {
+        triggers = NO_TRIGGERS;
+        wakeWaiters();
+    }
+
+    public Trigger get(String name) {
+        for (Trigger t : triggers) {
+            if (t.name.equals(name)) {
+                return t;
+            }
+        }
+        return null;
+    }
+
+    public boolean isEmpty() {
+        return triggers.length == 0;
+    }
+
+    // Called from Robot.receiveNotification for every frame.
+    public void evaluate(byte[] data) {
+        Trigger[] current = triggers;
+        boolean fired = false;
+        for (int i = 0; i < current.length; i++) {
+            Trigger t = current[i];
+            int value = t.sensor.read(robot, data);
+            if (t.evaluate(value)) {
+                fired = true;
+            }
+        }
+        if (fired) {
+            wakeWaiters();
+        }
+    }
+
+    // Long-poll support. Blocks until the named trigger has fired more than
+    // 'since' times, or the timeout elapses. Pass since < 0 to wait for the
+    // next firing after this call. Returns the fire count, or -1 if the
+    // trigger did not fire (or does not exist), or the robot disconnected.
+    public long await(String name, long since, long timeoutMs) throws InterruptedException {
+        Trigger t = get(name);
+        if (t == null) {
+            return -1;
+        }
+        long target = (since < 0) ? t.getFireCount() : since;
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        synchronized (waitLock) {
+            while (t.getFireCount() <= target) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0 || get(name) != t || !robot.isConnected()) {
+                    return -1;
+                }
+                waitLock.wait(remaining);
+            }
+        }
+        return t.getFireCount();
+    }
+
+    void wakeWaiters() {
+        synchronized (waitLock) {
+            waitLock.notifyAll();
+        }
+    }
+}
@@ -11,8 +11,21 @@ public final class Utilities {
         e.printStackTrace(pw);
         return sw.toString(); // stack trace as a string
     }
+    // Devices are lettered A-Z, then a-z.
+    public static final int MAX_DEV_LETTERS = 52;
     public static String indexToDevLetter(int index) {
-        return Character.toString((char)(index + 65));
+        if (index < 26) {
+            return Character.toString((char)(index + 'A'));
+        }
+        return Character.toString((char)(index - 26 + 'a'));
+    }
+    public static int devLetterToIndex(char devLetter) {
+        if (devLetter >= 'A' && devLetter <= 'Z') {
+            return devLetter - 'A';
+        } else if (devLetter >= 'a' && devLetter <= 'z') {
+            return devLetter - 'a' + 26;
+        }
+        return -1;
     }
     public static String bytesToString(byte[] bytes) {
         StringBuffer result = new StringBuffer();
@@ -13,7 +13,8 @@ module BlueBirdConnector {
     requires java.logging;
     requires freetts;
     requires org.freedesktop.dbus;
-    requires org.freedesktop.dbus.transport.jre;
+    requires org.freedesktop.dbus.transport.jnr;
+    requires org.jnrproject.enxio;
 
     exports com.birdbraintechnologies.bluebirdconnector;
 }
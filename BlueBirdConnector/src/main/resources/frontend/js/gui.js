@@ -1,4 +1,5 @@
 var connectedDeviceList = [];
+var maxConnectedDevices = 52; //devices A-Z and a-z, see RobotRegistry.MAX_ROBOTS
 var scanDeviceList = [];
 
 //Table to use for translations
@@ -113,7 +114,7 @@ $.scanListRefresh = function() {
     var name = (item.fancyName == null ? item.name : item.fancyName);
     var ttsName = (item.fancyName == null ? item.name : item.fancyName.substring(0, item.fancyName.lastIndexOf(" ")));
     var ttsContent = "connect to " + ttsName;
-    var btn = (connectedDeviceList.length < 3 ? connectButton : "");
+    var btn = (connectedDeviceList.length < maxConnectedDevices ? connectButton : "");
 
     var el = $(
       "<div class=\"row robot-item\" onmouseenter=\"tts(\'" + ttsContent + "\')\"><a href=\"#\"> " +
@@ -124,8 +125,8 @@ $.scanListRefresh = function() {
 
     //the connect button click event
     el.find('a').click(function() {
-      //if we already have 3 connections, do not add any more.
-      if (connectedDeviceList.length >= 3) {
+      //if we already have the maximum number of connections, do not add any more.
+      if (connectedDeviceList.length >= maxConnectedDevices) {
         sendMessageToBackend(msgTypes.CONSOLE_LOG, {
           consoleLog: "Ignoring click to connect. Max connected devices already reached. device count = " + connectedDeviceList.length
         })
@@ -0,0 +1,103 @@
+package com.birdbraintechnologies.bluebirdconnector;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+// Cost of encoding one outgoing frame into the robot's reused channel buffer,
+// against a fresh buffer per frame as before CommandCodec. Run with
+//   java -cp <test classpath> com.birdbraintechnologies.bluebirdconnector.CommandCodecBenchmark
+// and add -prof gc (through the JMH command line) to see the allocation rate.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommandCodecBenchmark {
+
+    private final byte[] setAll = new byte[CommandCodec.FRAME_LENGTH];
+    private final byte[] ledDisplay = new byte[CommandCodec.FRAME_LENGTH];
+    private final byte[] finchFrame = new byte[CommandCodec.FRAME_LENGTH];
+    private final byte[] motors = new byte[8];
+    private int n;
+
+    @Setup
+    public void setUp() {
+        CommandCodec.encodeSymbol(0b1000101010001000101010001, ledDisplay);
+    }
+
+    // The inputs change with every call so nothing folds to a constant
+    private int next() {
+        return n = (n + 1) & 0x7F;
+    }
+
+    @Benchmark
+    public byte[] setAllPooled() {
+        int v = next();
+        CommandCodec.HUMMINGBIT.initSetAll(setAll);
+        CommandCodec.HUMMINGBIT.encodeTriLed(setAll, "1", (byte) v, (byte) (v + 1), (byte) (v + 2));
+        CommandCodec.HUMMINGBIT.encodeBuzzer(setAll, 40 + v % 60, 500);
+        return setAll;
+    }
+
+    @Benchmark
+    public byte[] setAllAllocated() {
+        int v = next();
+        byte[] frame = new byte[CommandCodec.FRAME_LENGTH];
+        CommandCodec.HUMMINGBIT.initSetAll(frame);
+        CommandCodec.HUMMINGBIT.encodeTriLed(frame, "1", (byte) v, (byte) (v + 1), (byte) (v + 2));
+        CommandCodec.HUMMINGBIT.encodeBuzzer(frame, 40 + v % 60, 500);
+        return frame;
+    }
+
+    @Benchmark
+    public byte[] symbolPooled() {
+        CommandCodec.encodeSymbol(next() << 10, ledDisplay);
+        return ledDisplay;
+    }
+
+    @Benchmark
+    public byte[] symbolAllocated() {
+        byte[] frame = new byte[CommandCodec.FRAME_LENGTH];
+        CommandCodec.encodeSymbol(next() << 10, frame);
+        return frame;
+    }
+
+    @Benchmark
+    public void finchFramePooled(Blackhole bh) {
+        int v = next();
+        CommandCodec.encodeMotor(v - 64, 0, motors, 0);
+        CommandCodec.encodeMotor(64 - v, 0, motors, 4);
+        bh.consume(CommandCodec.encodeFinchFrame(finchFrame, motors, null, ledDisplay));
+        bh.consume(finchFrame);
+    }
+
+    @Benchmark
+    public void finchFrameAllocated(Blackhole bh) {
+        int v = next();
+        byte[] wheels = new byte[8];
+        byte[] frame = new byte[CommandCodec.FRAME_LENGTH];
+        CommandCodec.encodeMotor(v - 64, 0, wheels, 0);
+        CommandCodec.encodeMotor(64 - v, 0, wheels, 4);
+        bh.consume(CommandCodec.encodeFinchFrame(frame, wheels, null, ledDisplay));
+        bh.consume(frame);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(CommandCodecBenchmark.class.getSimpleName()).build()).run();
+    }
+}
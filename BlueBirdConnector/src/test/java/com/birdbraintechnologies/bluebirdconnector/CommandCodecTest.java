@@ -0,0 +1,199 @@
+package com.birdbraintechnologies.bluebirdconnector;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Golden frames, taken from the encoders as they were before CommandCodec,
+// so any change to what goes over the air shows up here.
+public class CommandCodecTest {
+
+    // The 5x5 X: LEDs 0, 4, 6, 8, 12, 16, 18, 20 and 24
+    private static final int X_PIXELS = 0b1000101010001000101010001;
+
+    @Test
+    public void setAllStartsWithEverythingOff() {
+        assertFrame("D0 00 00 00 00 00 00 00 00 00 00 00 00 00 00 00 00 00 00 00", setAll(CommandCodec.FINCH));
+        assertFrame("CA 00 00 00 00 00 00 00 00 FF FF FF FF 00 00 00 00 00 00 00", setAll(CommandCodec.HUMMINGBIT));
+    }
+
+    @Test
+    public void finchTriLeds() {
+        byte[] frame = setAll(CommandCodec.FINCH);
+        assertTrue(CommandCodec.FINCH.encodeTriLed(frame, "1", (byte) 255, (byte) 0, (byte) 128));
+        assertFrame("D0 FF 00 80 00 00 00 00 00 00 00 00 00 00 00 00 00 00 00 00", frame);
+
+        frame = setAll(CommandCodec.FINCH);
+        assertTrue(CommandCodec.FINCH.encodeTriLed(frame, "all", (byte) 10, (byte) 20, (byte) 30));
+        assertFrame("D0 00 00 00 0A 14 1E 0A 14 1E 0A 14 1E 0A 14 1E 00 00 00 00", frame);
+    }
+
+    @Test
+    public void hummingbirdTriLeds() {
+        byte[] frame = setAll(CommandCodec.HUMMINGBIT);
+        assertTrue(CommandCodec.HUMMINGBIT.encodeTriLed(frame, "1", (byte) 1, (byte) 2, (byte) 3));
+        assertTrue(CommandCodec.HUMMINGBIT.encodeTriLed(frame, "2", (byte) 4, (byte) 5, (byte) 6));
+        assertFrame("CA 00 00 01 02 03 04 05 06 FF FF FF FF 00 00 00 00 00 00 00", frame);
+
+        assertFalse(CommandCodec.HUMMINGBIT.encodeTriLed(frame, "3", (byte) 7, (byte) 8, (byte) 9));
+        assertFrame("CA 00 00 01 02 03 04 05 06 FF FF FF FF 00 00 00 00 00 00 00", frame);
+    }
+
+    @Test
+    public void buzzer() {
+        byte[] frame = setAll(CommandCodec.FINCH);
+        CommandCodec.FINCH.encodeBuzzer(frame, 60, 1000);
+        assertFrame("D0 00 00 00 00 00 00 00 00 00 00 00 00 00 00 00 0E EE 03 E8", frame);
+        assertTrue(CommandCodec.FINCH.hasBuzzerNote(frame));
+        CommandCodec.FINCH.encodeBuzzer(frame, 0, 1000);
+        assertFrame("D0 00 00 00 00 00 00 00 00 00 00 00 00 00 00 00 00 00 00 00", frame);
+
+        frame = setAll(CommandCodec.HUMMINGBIT);
+        CommandCodec.HUMMINGBIT.encodeBuzzer(frame, 69, 500);
+        assertFrame("CA 00 00 00 00 00 00 00 00 FF FF FF FF 00 00 08 E1 01 F4 00", frame);
+        CommandCodec.HUMMINGBIT.clearBuzzer(frame);
+        assertFalse(CommandCodec.HUMMINGBIT.hasBuzzerNote(frame));
+        assertFrame("CA 00 00 00 00 00 00 00 00 FF FF FF FF 00 00 00 00 00 00 00", frame);
+    }
+
+    @Test
+    public void symbol() {
+        byte[] frame = filled();
+        CommandCodec.encodeSymbol(X_PIXELS, frame);
+        assertFrame("CC 80 01 15 11 51 00 00 00 00 00 00 00 00 00 00 00 00 00 00", frame);
+
+        CommandCodec.encodeSymbol((1 << 25) - 1, frame);
+        assertFrame("CC 80 01 FF FF FF 00 00 00 00 00 00 00 00 00 00 00 00 00 00", frame);
+    }
+
+    @Test
+    public void print() {
+        byte[] frame = filled();
+        print("HELLO", frame);
+        assertFrame("CC 45 48 45 4C 4C 4F 00 00 00 00 00 00 00 00 00 00 00 00 00", frame);
+        assertEquals(5, CommandCodec.printLength(frame));
+
+        // Cut to MAX_LED_PRINT_WORD_LEN characters
+        print("ABCDEFGHIJKLM", frame);
+        assertFrame("CC 4A 41 42 43 44 45 46 47 48 49 4A 00 00 00 00 00 00 00 00", frame);
+    }
+
+    @Test
+    public void motors() {
+        assertMotor("92 00 00 00", 50, 0);
+        assertMotor("24 00 03 18", -100, 792);
+        assertMotor("A4 12 34 56", 100, 0x123456);
+        assertMotor("00 00 00 00", 0, 0);
+        // Speeds that scale to 1 or 2 are raised to the slowest the motors turn at
+        assertMotor("83 00 00 00", 5, 0);
+        assertMotor("00 00 00 05", -1, 5);
+    }
+
+    @Test
+    public void finchFrameModes() {
+        byte[] motors = motors(50, 0, -50, 0);
+        byte[] ledPrint = new byte[CommandCodec.FRAME_LENGTH];
+        print("HI", ledPrint);
+        byte[] ledDisplay = new byte[CommandCodec.FRAME_LENGTH];
+        CommandCodec.encodeSymbol(X_PIXELS, ledDisplay);
+
+        assertFinchFrame("D2 40 92 00 00 00 12 00 00 00 00 00 00 00 00 00 00 00 00 00", motors, null, null);
+        assertFinchFrame("D2 82 92 00 00 00 12 00 00 00 48 49 00 00 00 00 00 00 00 00", motors, ledPrint, null);
+        assertFinchFrame("D2 60 92 00 00 00 12 00 00 00 01 15 11 51 00 00 00 00 00 00", motors, null, ledDisplay);
+        assertFinchFrame("D2 02 48 49 00 00 00 00 00 00 00 00 00 00 00 00 00 00 00 00", null, ledPrint, null);
+        assertFinchFrame("D2 20 01 15 11 51 00 00 00 00 00 00 00 00 00 00 00 00 00 00", null, null, ledDisplay);
+        // A print wins over a symbol
+        assertFinchFrame("D2 02 48 49 00 00 00 00 00 00 00 00 00 00 00 00 00 00 00 00", null, ledPrint, ledDisplay);
+        assertFinchFrame("D2 40 92 00 03 E8 92 00 03 E8 00 00 00 00 00 00 00 00 00 00", motors(50, 1000, 50, 1000), null, null);
+
+        assertEquals(0, CommandCodec.encodeFinchFrame(filled(), null, null, null));
+    }
+
+    @Test
+    public void supersedeKeys() {
+        byte[] finchSetAll = setAll(CommandCodec.FINCH);
+        byte[] hummingbitSetAll = setAll(CommandCodec.HUMMINGBIT);
+        assertEquals(0xD000, CommandCodec.supersedeKey(finchSetAll));
+        assertEquals(0xCA00, CommandCodec.supersedeKey(hummingbitSetAll));
+        // Each note has to be played
+        CommandCodec.HUMMINGBIT.encodeBuzzer(hummingbitSetAll, 60, 100);
+        assertEquals(0, CommandCodec.supersedeKey(hummingbitSetAll));
+
+        byte[] frame = new byte[CommandCodec.FRAME_LENGTH];
+        CommandCodec.encodeSymbol(X_PIXELS, frame);
+        assertEquals(0xCC00, CommandCodec.supersedeKey(frame));
+        print("HI", frame);
+        assertEquals(0, CommandCodec.supersedeKey(frame));
+
+        byte[] ledDisplay = new byte[CommandCodec.FRAME_LENGTH];
+        CommandCodec.encodeSymbol(X_PIXELS, ledDisplay);
+        CommandCodec.encodeFinchFrame(frame, motors(50, 0, 50, 0), null, null);
+        assertEquals(0xD240, CommandCodec.supersedeKey(frame));
+        CommandCodec.encodeFinchFrame(frame, motors(50, 0, 50, 0), null, ledDisplay);
+        assertEquals(0xD260, CommandCodec.supersedeKey(frame));
+        CommandCodec.encodeFinchFrame(frame, null, null, ledDisplay);
+        assertEquals(0xD220, CommandCodec.supersedeKey(frame));
+        // A move by distance, and anything with scrolling text, goes out as is
+        CommandCodec.encodeFinchFrame(frame, motors(50, 1000, 50, 0), null, null);
+        assertEquals(0, CommandCodec.supersedeKey(frame));
+        byte[] ledPrint = new byte[CommandCodec.FRAME_LENGTH];
+        print("HI", ledPrint);
+        CommandCodec.encodeFinchFrame(frame, motors(50, 0, 50, 0), ledPrint, null);
+        assertEquals(0, CommandCodec.supersedeKey(frame));
+
+        assertEquals(0, CommandCodec.supersedeKey(CommandCodec.CALIBRATE));
+        assertEquals(0, CommandCodec.supersedeKey(CommandCodec.POLL_STOP));
+        assertEquals(0, CommandCodec.supersedeKey(CommandCodec.FINCH.stopAll));
+    }
+
+    private static byte[] setAll(CommandCodec codec) {
+        byte[] frame = filled();
+        codec.initSetAll(frame);
+        return frame;
+    }
+
+    private static void print(String text, byte[] frame) {
+        char[] chars = text.toCharArray();
+        CommandCodec.encodePrint(chars, 0, chars.length, frame);
+    }
+
+    private static byte[] motors(int speedL, int ticksL, int speedR, int ticksR) {
+        byte[] motors = new byte[CommandCodec.FRAME_LENGTH];
+        CommandCodec.encodeMotor(speedL, ticksL, motors, 0);
+        CommandCodec.encodeMotor(speedR, ticksR, motors, 4);
+        return motors;
+    }
+
+    // A frame buffer holding leftovers, to show the encoders clear what they don't set
+    private static byte[] filled() {
+        byte[] frame = new byte[CommandCodec.FRAME_LENGTH];
+        Arrays.fill(frame, (byte) 0x77);
+        return frame;
+    }
+
+    private static void assertMotor(String expected, int speed, int ticks) {
+        byte[] out = filled();
+        CommandCodec.encodeMotor(speed, ticks, out, 4);
+        assertFrame(expected, Arrays.copyOfRange(out, 4, 8));
+        assertEquals(0x77, out[3] & 0xFF);
+        assertEquals(0x77, out[8] & 0xFF);
+    }
+
+    private static void assertFinchFrame(String expected, byte[] motors, byte[] ledPrint, byte[] ledDisplay) {
+        byte[] out = filled();
+        byte mode = CommandCodec.encodeFinchFrame(out, motors, ledPrint, ledDisplay);
+        assertFrame(expected, out);
+        assertEquals(out[1], mode);
+    }
+
+    private static void assertFrame(String expected, byte[] frame) {
+        String[] hex = expected.split(" ");
+        byte[] bytes = new byte[hex.length];
+        for (int i = 0; i < hex.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex[i], 16);
+        }
+        assertArrayEquals(bytes, frame, () -> "got " + Utilities.bytesToString(frame));
+    }
+}
@@ -0,0 +1,88 @@
+package com.birdbraintechnologies.bluebirdconnector;
+
+import org.freedesktop.dbus.exceptions.DBusException;
+import org.freedesktop.dbus.messages.MessageFactory;
+import org.freedesktop.dbus.messages.constants.Endian;
+import org.freedesktop.dbus.types.Variant;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// Per-frame cost of a GATT value on the BlueZ D-Bus transport, as the
+// byte[] LinuxBluezBLE passes now against the List<Byte> it used to box
+// every command into and unbox every notification from. The write side
+// marshals a whole WriteValue call through dbus-java, as the proxy does.
+// Run like CommandCodecBenchmark.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GattMarshallingBenchmark {
+
+    private static final String TX_CHAR = "/org/bluez/hci0/dev_C4_3F_27_1A_2B_3C/service000a/char000b";
+
+    private final MessageFactory messages = new MessageFactory(Endian.LITTLE);
+    private final Map<String, Variant<?>> options = Map.of();
+    private final byte[] frame = new byte[CommandCodec.FRAME_LENGTH];
+    private final List<Byte> notification = new ArrayList<>();
+    private byte[] rxBuffer = new byte[CommandCodec.FRAME_LENGTH];
+
+    public GattMarshallingBenchmark() {
+        CommandCodec.FINCH.initSetAll(frame);
+        CommandCodec.FINCH.encodeTriLed(frame, "all", (byte) 10, (byte) 20, (byte) 30);
+        for (int i = 0; i < CommandCodec.FRAME_LENGTH; i++) {
+            notification.add((byte) i);
+        }
+    }
+
+    @Benchmark
+    public byte[][] writeByteArray() throws DBusException {
+        return writeValue(frame);
+    }
+
+    @Benchmark
+    public byte[][] writeByteList() throws DBusException {
+        List<Byte> list = new ArrayList<>(frame.length);
+        for (byte b : frame) {
+            list.add(b);
+        }
+        return writeValue(list);
+    }
+
+    // A byte[] notification value is used as is, so only the List<Byte> form costs anything
+    @Benchmark
+    public byte[] readByteList() {
+        if (rxBuffer.length != notification.size()) {
+            rxBuffer = new byte[notification.size()];
+        }
+        for (int i = 0; i < rxBuffer.length; i++) {
+            rxBuffer[i] = notification.get(i);
+        }
+        return rxBuffer;
+    }
+
+    private byte[][] writeValue(Object value) throws DBusException {
+        return messages.createMethodCall("org.bluez", TX_CHAR, "org.bluez.GattCharacteristic1", "WriteValue",
+                (byte) 0, "aya{sv}", value, options).getWireData();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(GattMarshallingBenchmark.class.getSimpleName()).build()).run();
+    }
+}
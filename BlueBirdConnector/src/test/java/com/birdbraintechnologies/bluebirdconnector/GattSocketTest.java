@@ -0,0 +1,134 @@
+package com.birdbraintechnologies.bluebirdconnector;
+
+import jnr.constants.platform.AddressFamily;
+import jnr.constants.platform.Fcntl;
+import jnr.constants.platform.OpenFlags;
+import jnr.constants.platform.Sock;
+import jnr.ffi.LibraryLoader;
+import jnr.ffi.annotations.Out;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// GattSocket over a SOCK_SEQPACKET socketpair, set up the way BlueZ hands
+// out the sockets from AcquireWrite and AcquireNotify: non-blocking.
+public class GattSocketTest {
+
+    public interface LibC {
+        int socketpair(int domain, int type, int protocol, @Out int[] fds);
+        int fcntl(int fd, int cmd, int arg);
+        int close(int fd);
+    }
+
+    private static final LibC LIBC = LibraryLoader.create(LibC.class).load("c");
+    private static final int MTU = 20;
+
+    private int[] fds;
+    private GattSocket tx;
+    private GattSocket rx;
+
+    @BeforeEach
+    public void openSocketPair() {
+        fds = new int[2];
+        assertEquals(0, LIBC.socketpair(AddressFamily.AF_UNIX.intValue(), Sock.SOCK_SEQPACKET.intValue(), 0, fds));
+        for (int fd : fds) {
+            int flags = LIBC.fcntl(fd, Fcntl.F_GETFL.intValue(), 0);
+            LIBC.fcntl(fd, Fcntl.F_SETFL.intValue(), flags | OpenFlags.O_NONBLOCK.intValue());
+        }
+    }
+
+    @AfterEach
+    public void closeSockets() {
+        // Each GattSocket owns its descriptor
+        if (tx != null) {
+            tx.close();
+        } else {
+            LIBC.close(fds[0]);
+        }
+        if (rx != null) {
+            rx.close();
+        } else {
+            LIBC.close(fds[1]);
+        }
+    }
+
+    @Test
+    public void socketsAreMadeBlocking() throws IOException {
+        tx = GattSocket.forWrite("tx", fds[0], MTU);
+        rx = GattSocket.forNotify("rx", fds[1], MTU);
+        for (int fd : fds) {
+            assertEquals(0, LIBC.fcntl(fd, Fcntl.F_GETFL.intValue(), 0) & OpenFlags.O_NONBLOCK.intValue());
+        }
+    }
+
+    @Test
+    public void eachWriteIsOneValue() throws Exception {
+        tx = GattSocket.forWrite("tx", fds[0], MTU);
+        rx = GattSocket.forNotify("rx", fds[1], MTU);
+        BlockingQueue<byte[]> values = new LinkedBlockingQueue<>();
+        rx.startReader(values::add, () -> { });
+
+        tx.write(new byte[] {(byte) 0xD0, 1, 2});
+        tx.write(new byte[] {3, 4, 5, 6, 7});
+        tx.write(new byte[MTU]);
+        assertArrayEquals(new byte[] {(byte) 0xD0, 1, 2}, values.poll(1, TimeUnit.SECONDS));
+        assertArrayEquals(new byte[] {3, 4, 5, 6, 7}, values.poll(1, TimeUnit.SECONDS));
+        assertArrayEquals(new byte[MTU], values.poll(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void rejectsValuesOverTheMtu() throws Exception {
+        tx = GattSocket.forWrite("tx", fds[0], MTU);
+        assertThrows(IOException.class, () -> tx.write(new byte[MTU + 1]));
+        tx.close();
+        assertTrue(tx.isClosed());
+        assertThrows(IOException.class, () -> tx.write(new byte[1]));
+    }
+
+    @Test
+    public void peerCloseRunsOnClosed() throws Exception {
+        tx = GattSocket.forWrite("tx", fds[0], MTU);
+        rx = GattSocket.forNotify("rx", fds[1], MTU);
+        CountDownLatch closed = new CountDownLatch(1);
+        rx.startReader((value) -> { }, closed::countDown);
+
+        tx.close();
+        assertTrue(closed.await(1, TimeUnit.SECONDS));
+        assertTrue(rx.isClosed());
+    }
+
+    // Closing the descriptor alone would leave the reader blocked in read
+    @Test
+    public void localCloseEndsTheReader() throws Exception {
+        tx = GattSocket.forWrite("tx", fds[0], MTU);
+        rx = GattSocket.forNotify("rx", fds[1], MTU);
+        BlockingQueue<byte[]> values = new LinkedBlockingQueue<>();
+        CountDownLatch closed = new CountDownLatch(1);
+        rx.startReader(values::add, closed::countDown);
+        tx.write(new byte[] {1});
+        assertNotNull(values.poll(1, TimeUnit.SECONDS)); // the reader is running
+
+        rx.close();
+        assertTrue(readerEnds("GattSocket-rx", 1000));
+        assertFalse(closed.await(100, TimeUnit.MILLISECONDS));
+    }
+
+    private static boolean readerEnds(String threadName, long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (Thread.getAllStackTraces().keySet().stream().anyMatch((t) -> t.getName().equals(threadName))) {
+            if (System.currentTimeMillis() > deadline) {
+                return false;
+            }
+            Thread.sleep(10);
+        }
+        return true;
+    }
+}
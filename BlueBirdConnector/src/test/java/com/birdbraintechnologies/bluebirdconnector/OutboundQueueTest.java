@@ -0,0 +1,158 @@
+package com.birdbraintechnologies.bluebirdconnector;
+
+import com.google.gson.JsonObject;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OutboundQueueTest {
+
+    private static final int X_PIXELS = 0b1000101010001000101010001;
+
+    private final OutboundQueue queue = new OutboundQueue("FN12345", 4);
+
+    @Test
+    public void aNewerStateFrameReplacesTheQueuedOne() {
+        byte[] red = triLed(CommandCodec.FINCH, 255);
+        byte[] symbol = symbol(X_PIXELS);
+        byte[] blue = triLed(CommandCodec.FINCH, 10);
+        byte[] wheels = wheels(50, 0);
+        byte[] faster = wheels(80, 0);
+
+        assertTrue(queue.offer(red, null));
+        assertFalse(queue.offer(symbol, null));
+        assertFalse(queue.offer(wheels, null));
+        assertFalse(queue.offer(blue, null));
+        assertFalse(queue.offer(faster, null));
+
+        // The replacement goes to the back, behind what was queued after the frame it replaced
+        assertEquals(List.of(symbol, blue, faster), drain());
+        assertCounts(0, 5, 2, 0);
+    }
+
+    @Test
+    public void notesAndDistanceMovesAreNeverReplaced() {
+        byte[] note = triLed(CommandCodec.HUMMINGBIT, 0);
+        CommandCodec.HUMMINGBIT.encodeBuzzer(note, 60, 100);
+        byte[] nextNote = triLed(CommandCodec.HUMMINGBIT, 0);
+        CommandCodec.HUMMINGBIT.encodeBuzzer(nextNote, 62, 100);
+        byte[] move = wheels(50, 1000);
+        byte[] nextMove = wheels(50, 1000);
+
+        queue.offer(note, null);
+        queue.offer(move, null);
+        queue.offer(nextNote, null);
+        queue.offer(nextMove, null);
+
+        assertEquals(List.of(note, move, nextNote, nextMove), drain());
+        assertCounts(0, 4, 0, 0);
+    }
+
+    @Test
+    public void aFullQueueDropsNewFrames() {
+        List<byte[]> notes = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            byte[] note = triLed(CommandCodec.HUMMINGBIT, 0);
+            CommandCodec.HUMMINGBIT.encodeBuzzer(note, 60 + i, 100);
+            queue.offer(note, null);
+            notes.add(note);
+        }
+        assertEquals(notes.subList(0, 4), drain());
+        assertCounts(0, 4, 0, 1);
+    }
+
+    @Test
+    public void replaceAllTakesOverARunningDrain() {
+        Runnable stopped = () -> { };
+        byte[] first = wheels(50, 0);
+        assertTrue(queue.offer(first, null));
+        assertFalse(queue.offer(symbol(X_PIXELS), null));
+        assertFalse(queue.offer(triLed(CommandCodec.FINCH, 255), null));
+        assertSame(first, queue.poll().frame); // the drain is under way
+
+        queue.replaceAll(CommandCodec.FINCH.stopAll, stopped);
+        // Still one drain, so a frame offered now waits behind the stop
+        byte[] after = triLed(CommandCodec.FINCH, 10);
+        assertFalse(queue.offer(after, null));
+
+        OutboundQueue.Entry stop = queue.poll();
+        assertSame(CommandCodec.FINCH.stopAll, stop.frame);
+        assertSame(stopped, stop.written);
+        assertSame(after, queue.poll().frame);
+        assertNull(queue.poll());
+        assertCounts(0, 5, 2, 0);
+
+        assertTrue(queue.offer(wheels(50, 0), null));
+    }
+
+    @Test
+    public void replaceAllWithNoDrainRunning() {
+        queue.replaceAll(CommandCodec.FINCH.stopAll, null);
+        // The caller starts the drain for the stop
+        assertFalse(queue.offer(symbol(X_PIXELS), null));
+        assertEquals(2, drain().size());
+    }
+
+    @Test
+    public void clearEndsTheDrainAndTheNextOfferStartsOne() {
+        assertTrue(queue.offer(wheels(50, 0), null));
+        assertFalse(queue.offer(symbol(X_PIXELS), null));
+        queue.clear();
+        assertCounts(0, 2, 0, 2);
+
+        // A frame queued after the disconnect gets a drain of its own
+        byte[] next = triLed(CommandCodec.FINCH, 255);
+        assertTrue(queue.offer(next, null));
+        assertEquals(List.of(next), drain());
+
+        // And a drain that was cut off finds nothing at its next poll
+        assertTrue(queue.offer(wheels(50, 0), null));
+        queue.poll();
+        queue.offer(symbol(X_PIXELS), null);
+        queue.clear();
+        assertNull(queue.poll());
+        assertTrue(queue.offer(next, null));
+    }
+
+    // Polls until the drain ends
+    private List<byte[]> drain() {
+        List<byte[]> frames = new ArrayList<>();
+        for (OutboundQueue.Entry entry = queue.poll(); entry != null; entry = queue.poll()) {
+            frames.add(entry.frame);
+        }
+        return frames;
+    }
+
+    private void assertCounts(int depth, long queued, long superseded, long dropped) {
+        JsonObject json = queue.toJson();
+        assertEquals(depth, json.get("depth").getAsInt());
+        assertEquals(queued, json.get("queued").getAsLong());
+        assertEquals(superseded, json.get("superseded").getAsLong());
+        assertEquals(dropped, json.get("dropped").getAsLong());
+    }
+
+    private static byte[] triLed(CommandCodec codec, int red) {
+        byte[] frame = new byte[CommandCodec.FRAME_LENGTH];
+        codec.initSetAll(frame);
+        codec.encodeTriLed(frame, "1", (byte) red, (byte) 0, (byte) 0);
+        return frame;
+    }
+
+    private static byte[] symbol(int pixels) {
+        byte[] frame = new byte[CommandCodec.FRAME_LENGTH];
+        CommandCodec.encodeSymbol(pixels, frame);
+        return frame;
+    }
+
+    private static byte[] wheels(int speed, int ticks) {
+        byte[] motors = new byte[CommandCodec.FRAME_LENGTH];
+        CommandCodec.encodeMotor(speed, ticks, motors, 0);
+        CommandCodec.encodeMotor(speed, ticks, motors, 4);
+        byte[] frame = new byte[CommandCodec.FRAME_LENGTH];
+        CommandCodec.encodeFinchFrame(frame, motors, null, null);
+        return frame;
+    }
+}
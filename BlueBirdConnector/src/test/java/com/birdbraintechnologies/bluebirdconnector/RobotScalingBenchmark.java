@@ -0,0 +1,106 @@
+package com.birdbraintechnologies.bluebirdconnector;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+// SetAll updates and notification ingestion spread round robin over a
+// growing RobotRegistry, to show the per-robot cost stays flat up to
+// MAX_ROBOTS. SetAll comes in on several servlet threads at once, while
+// notifications are delivered by a single communicator thread.
+//
+// The robots are never connected, so nothing is sent and no SetAllThread
+// runs. Building them creates the RobotManager, whose timer may set up a
+// communicator in the background, but no scan is started.
+// Run like CommandCodecBenchmark.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RobotScalingBenchmark {
+
+    private static final Short RSSI = -60;
+
+    @State(Scope.Benchmark)
+    public static class Fleet {
+        @Param({"1", "3", "10", "26", "52"})
+        public int robots;
+
+        final RobotRegistry registry = new RobotRegistry();
+        final char[] letters = new char[RobotRegistry.MAX_ROBOTS];
+        // Two sensor frames that differ in one port, so every notification
+        // is new data. The battery byte reads full throughout.
+        final byte[][] frames = new byte[2][14];
+
+        @Setup(Level.Trial)
+        public void connect() {
+            for (int i = 0; i < robots; i++) {
+                int index = registry.add(new Hummingbird(String.format("BB%05X", 0x1A2B0 + i), null));
+                letters[i] = Utilities.indexToDevLetter(index).charAt(0);
+            }
+            for (byte[] frame : frames) {
+                frame[3] = (byte) 0xFF;
+            }
+            frames[1][0] = 10;
+            // Report the battery and RSSI once, which goes to the (absent) GUI
+            for (Robot robot : registry.getAll()) {
+                robot.receiveNotification(frames[0], RSSI);
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+
+        @Setup(Level.Trial)
+        public void spread() {
+            next = (int) (Thread.currentThread().getId() * 7);
+        }
+    }
+
+    // As RobotServlet does for a tri-LED or servo request: find the robot
+    // by its letter and update its SetAll frame.
+    @Benchmark
+    @Threads(4)
+    public void setAll(Fleet fleet, Cursor cursor) {
+        int i = cursor.next++;
+        Robot robot = fleet.registry.get(fleet.letters[Math.floorMod(i, fleet.robots)]);
+        robot.updateSetAll(9, (byte) i);
+    }
+
+    @Benchmark
+    public void notification(Fleet fleet, Cursor cursor) {
+        int i = cursor.next++;
+        Robot robot = fleet.registry.get(Math.floorMod(i, fleet.robots));
+        robot.receiveNotification(fleet.frames[(i / fleet.robots) & 1], RSSI);
+    }
+
+    // A robot that keeps streaming the same frame
+    @Benchmark
+    public void repeatedNotification(Fleet fleet, Cursor cursor) {
+        int i = cursor.next++;
+        Robot robot = fleet.registry.get(Math.floorMod(i, fleet.robots));
+        robot.receiveNotification(fleet.frames[0], RSSI);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(RobotScalingBenchmark.class.getSimpleName()).build()).run();
+    }
+}